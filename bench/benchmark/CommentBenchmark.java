@@ -0,0 +1,48 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import scrape.Json;
+import target.vnexpress.Comment;
+
+/* Comment.toString (manual jsonify) against Json.of on deep reply trees */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommentBenchmark {
+	@Param({"1", "10", "50"})
+	private int depth;
+	@Param({"3"})
+	private int fanout;
+	private Comment thread;
+	
+	@Setup
+	public void setup() {
+		thread = Fixtures.thread(depth, fanout);
+	}
+	
+	@Benchmark
+	public String jsonify() {
+		return thread.toString();
+	}
+	
+	@Benchmark
+	public String gson() {
+		return Json.of(thread);
+	}
+}
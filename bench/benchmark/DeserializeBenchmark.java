@@ -0,0 +1,54 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import target.vnexpress.CommentsPage;
+import target.vnexpress.CommentsScraper;
+
+/* Reading back synthetic result files, fully or one page at a time */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class DeserializeBenchmark {
+	@Param({"1", "10", "100", "500"})
+	private int megabytes;
+	private String filename;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		Path path = Fixtures.file(megabytes * 1024L * 1024L);
+		filename = path.toString();
+	}
+	
+	@Benchmark
+	public List<CommentsPage> deserialize() throws IOException {
+		return CommentsScraper.deserialize(filename);
+	}
+	
+	@Benchmark
+	public long streamPages() throws IOException {
+		try (Stream<CommentsPage> pages = CommentsScraper.streamPages(filename)) {
+			return pages.mapToLong(CommentsPage::size).sum();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package benchmark;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import scrape.PagedResult;
+import target.facebook.Credentials;
+import target.facebook.PostsPage;
+import target.facebook.PostsScraper;
+import target.vnexpress.Comment;
+import target.vnexpress.CommentsPage;
+import target.vnexpress.CommentsScraper;
+
+/* Offline end-to-end throughput of the real scrapers (browser included) against
+ * the fixture server. Wall-clock numbers, so unlike the JMH benchmarks it runs
+ * from its own main:
+ *   java -cp target/benchmarks.jar benchmark.EndToEndBenchmark pages=10 comments=50 workers=4
+ * Arguments (key=value): pages, comments, depth, replies, latency (ms), workers,
+ * mode (ELEMENTS|SCRIPT|STATIC), feeds, posts, harvest (true|false), recorded (directory
+ * of vnexpress articles saved as html, e.g. with the browser's 'Save Page As', which are
+ * scraped too after the synthetic ones; none are shipped with the repo).
+ */
+public class EndToEndBenchmark {
+	public static void main(String[] args) throws Exception {
+		Map<String, String> arguments = new HashMap<>();
+		for (String argument : args) {
+			String[] pair = argument.split("=", 2);
+			arguments.put(pair[0], pair.length > 1 ? pair[1] : "");
+		}
+		int pages = Integer.parseInt(arguments.getOrDefault("pages", "10")),
+			workers = Integer.parseInt(arguments.getOrDefault("workers", "1")),
+			feeds = Integer.parseInt(arguments.getOrDefault("feeds", "2"));
+		CommentsScraper.Mode mode = CommentsScraper.Mode.valueOf(arguments.getOrDefault("mode", "SCRIPT"));
+		FixtureServer.Settings settings = new FixtureServer.Settings()
+			.setComments(Integer.parseInt(arguments.getOrDefault("comments", "50")))
+			.setDepth(Integer.parseInt(arguments.getOrDefault("depth", "2")))
+			.setReplies(Integer.parseInt(arguments.getOrDefault("replies", "3")))
+			.setPosts(Integer.parseInt(arguments.getOrDefault("posts", "20")))
+			.setLatency(Long.parseLong(arguments.getOrDefault("latency", "20")));
+		if (arguments.containsKey("recorded"))
+			settings.setRecorded(Paths.get(arguments.get("recorded")));
+		try (FixtureServer server = new FixtureServer(settings)) {
+			String[] urls = new String[pages];
+			for (int i = 0; i < pages; i++)
+				urls[i] = server.articleUrl(i);
+			comments("vnexpress", urls, mode, workers);
+			List<String> recorded = server.recordedUrls();
+			if (recorded.isEmpty() && arguments.containsKey("recorded"))
+				System.err.println("No recorded pages (*.html) in "+arguments.get("recorded"));
+			else if (!recorded.isEmpty())
+				comments("recorded vnexpress", recorded.toArray(String[]::new), mode, workers);
+			posts(server, settings, feeds, Boolean.parseBoolean(arguments.getOrDefault("harvest", "false")));
+		}
+	}
+
+	private static void comments(String label, String[] urls, CommentsScraper.Mode mode, int workers) throws Exception {
+		LocalDateTime start = LocalDateTime.now();
+		long begin = System.nanoTime();
+		List<CommentsPage> results = new CommentsScraper(new CommentsScraper.Options()
+				.setMode(mode)
+				.setWorkers(workers), urls)
+			.getPages();
+		double seconds = (System.nanoTime() - begin) / 1e9;
+		long comments = 0;
+		for (CommentsPage page : results)
+			for (Comment comment : page)
+				comments += countTree(comment);
+		System.out.printf("%n%s (%s, %d worker(s)): %d pages, %d comments in %.2f s%n", label, mode, workers, results.size(), comments, seconds);
+		System.out.printf("  %8.2f pages/s, %10.1f comments/s%n", results.size() / seconds, comments / seconds);
+		if (workers == 1)
+			latencies(start, results);
+	}
+
+	private static void posts(FixtureServer server, FixtureServer.Settings settings, int feeds, boolean harvest) throws Exception {
+		String[] urls = new String[feeds];
+		for (int i = 0; i < feeds; i++)
+			urls[i] = server.feedUrl(i);
+		LocalDateTime start = LocalDateTime.now();
+		long begin = System.nanoTime();
+		List<PostsPage> results = new PostsScraper(
+				new Credentials("fixture", "fixture"),
+				post -> post.getTime() != null && post.getTime().endsWith("post "+settings.getPosts()),
+				new PostsScraper.Options()
+					.setLoginUrl(server.loginUrl())
+					.setHeadless(true)
+					.setHarvest(harvest)
+					.setSessions(null),	// measure the login too
+				urls)
+			.getPages();
+		double seconds = (System.nanoTime() - begin) / 1e9;
+		long posts = results.stream().mapToLong(PostsPage::size).sum();
+		System.out.printf("%nfacebook (%s): %d feeds, %d posts in %.2f s (login included)%n", harvest ? "harvest" : "one by one", results.size(), posts, seconds);
+		System.out.printf("  %8.2f feeds/s, %10.1f posts/s%n", results.size() / seconds, posts / seconds);
+		latencies(start, results);
+	}
+
+	private static long countTree(Comment comment) {
+		long count = 1;
+		for (Comment reply : comment.replies)
+			count += countTree(reply);
+		return count;
+	}
+
+	/* Pages are stamped when they're built, so in sequential runs the gap between
+	 * consecutive pages is the time spent on each one. The first page also pays
+	 * for the browser startup and is reported separately.
+	 */
+	private static void latencies(LocalDateTime start, List<? extends PagedResult<?>> pages) {
+		if (pages.isEmpty())
+			return;
+		List<Long> latencies = new ArrayList<>();
+		for (int i = 1; i < pages.size(); i++)
+			latencies.add(Duration.between(pages.get(i-1).getScraped(), pages.get(i).getScraped()).toMillis());
+		System.out.printf("  first page: %d ms (browser startup included)%n",
+			Duration.between(start, pages.get(0).getScraped()).toMillis());
+		if (latencies.isEmpty())
+			return;
+		Collections.sort(latencies);
+		System.out.printf("  per page  : p50 %d ms, p99 %d ms, max %d ms%n",
+			percentile(latencies, 50),
+			percentile(latencies, 99),
+			latencies.get(latencies.size()-1));
+	}
+
+	private static long percentile(List<Long> sorted, int percentile) {
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+		return sorted.get(Math.max(0, Math.min(index, sorted.size()-1)));
+	}
+}
@@ -0,0 +1,335 @@
+package benchmark;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import target.facebook.PostsScraper;
+
+/* Embedded HTTP server serving offline stand-ins for the scraped sites:
+ *  - /vnexpress/<id>   : synthetic article with a vnexpress-like comment box (configurable
+ *                        comment count, reply depth, replies per comment, lazy-loaded replies)
+ *  - /facebook/login   : login form, posting to /facebook/home which shows the account logo
+ *  - /facebook/feed/<id> : synthetic feed whose posts reproduce PostsScraper's selectors
+ *  - /recorded/<file>  : pages recorded from the live sites, served from a directory
+ * Every response (and every lazy reply load) is delayed by the configured latency.
+ */
+public class FixtureServer implements Closeable {
+	private static final Pattern STEP = Pattern.compile(
+		"^([a-z]*)(?::nth-child\\((\\d+)\\)|:nth-of-type\\((\\d+)\\)|:last-child)?((?:\\[[^\\]]+\\])*)$");
+	private static final int VISIBLE_REPLIES = 2;	// rendered before clicking 'view all replies'
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Settings settings;
+
+	public static class Settings {
+		private int comments = 50, depth = 2, replies = 3, posts = 20;
+		private long latency = 20;	// in ms
+		private Path recorded;
+
+		public Settings setComments(int comments) {
+			this.comments = comments;
+			return this;
+		}
+
+		public Settings setDepth(int depth) {
+			this.depth = depth;
+			return this;
+		}
+
+		public Settings setReplies(int replies) {
+			this.replies = replies;
+			return this;
+		}
+
+		public Settings setPosts(int posts) {
+			this.posts = posts;
+			return this;
+		}
+
+		public Settings setLatency(long latency) {
+			this.latency = latency;
+			return this;
+		}
+
+		public Settings setRecorded(Path directory) {
+			this.recorded = directory;
+			return this;
+		}
+
+		public int getPosts() {
+			return posts;
+		}
+
+		/* Comments of an article including all nested replies */
+		public int getTotalComments() {
+			int total = 0, level = comments;
+			for (int d = 0; d <= depth; d++, level *= replies)
+				total += level;
+			return total;
+		}
+	}
+
+	public FixtureServer(Settings settings) throws IOException {
+		this.settings = settings;
+		executor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/vnexpress/", exchange -> send(exchange, article(id(exchange))));
+		server.createContext("/facebook/login", exchange -> send(exchange, login()));
+		server.createContext("/facebook/home", exchange -> send(exchange, home()));
+		server.createContext("/facebook/feed/", exchange -> send(exchange, feed(id(exchange))));
+		server.createContext("/recorded/", this::recorded);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public String getUrl(String path) {
+		return "http://127.0.0.1:"+server.getAddress().getPort()+path;
+	}
+
+	public String articleUrl(int id) {
+		return getUrl("/vnexpress/"+id);
+	}
+
+	public String feedUrl(int id) {
+		return getUrl("/facebook/feed/"+id);
+	}
+
+	public String loginUrl() {
+		return getUrl("/facebook/login");
+	}
+
+	/* Time shown in the tooltip of the given post, to build stop conditions */
+	public static String postTime(int feed, int post) {
+		return String.format("Feed %d, post %d", feed, post);
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/* vnexpress */
+
+	private String article(int id) {
+		StringBuilder html = new StringBuilder("<html><head><meta charset='utf-8'><title>Article ")
+			.append(id)
+			.append("</title></head><body><h1>Fixture article</h1>")
+			.append("<div class='box_comment_vne width_common'>")
+			.append("<a class='view_more_coment' href='javascript:void(0)'>Xem th\u00eam</a>");
+		Map<String, String> hidden = new HashMap<>();
+		for (int i = 0; i < settings.comments; i++)
+			comment(html, hidden, id+"-"+i, 0);
+		html.append("</div><script>")
+			.append("var hidden = {};");
+		hidden.forEach((key, value) -> html.append("hidden['").append(key).append("'] = ")
+			.append(jsString(value))
+			.append(";"));
+		return html.append("document.addEventListener('click', function(e) {")
+			.append("  var link = e.target.closest('a.view_all_reply');")
+			.append("  if (link != null && !link.dataset.loading) {")
+			.append("    link.dataset.loading = 'true';")
+			.append("    setTimeout(function() {")
+			.append("      var holder = link.parentElement;")
+			.append("      holder.insertAdjacentHTML('beforebegin', hidden[link.dataset.replies]);")
+			.append("      holder.remove();")
+			.append("    }, ").append(settings.latency).append(");")
+			.append("  }")
+			.append("  var expand = e.target.closest('a.icon_show_full_comment');")
+			.append("  if (expand != null) {")
+			.append("    var content = expand.closest('div.content-comment');")
+			.append("    content.querySelector('p.content_less').style.display = 'none';")
+			.append("    content.querySelector('p.content_more').style.display = 'block';")
+			.append("  }")
+			.append("});")
+			.append("</script></body></html>")
+			.toString();
+	}
+
+	private void comment(StringBuilder html, Map<String, String> hidden, String key, int depth) {
+		String user = "User "+key,
+			message = "Message "+key+(key.endsWith("4") ? " which is long enough to be shrunk. ".repeat(10) : "");
+		html.append("<div class='comment_item width_common").append(depth > 0 ? " sub_comment_item" : "").append("'>")
+			.append("<div class='content-comment'>");
+		if (key.endsWith("4"))	// shrunken comment, the full text is only shown after expanding
+			html.append("<p class='content_less'>").append(message, 0, 20)
+				.append("<a class='icon_show_full_comment' href='javascript:void(0)'>...</a></p>")
+				.append("<p class='content_more' style='display: none'><span class='txt-name'><a class='nickname'><b>")
+				.append(user).append("</b></a></span>").append(message).append("</p>");
+		else
+			html.append("<p class='full_content'><span class='txt-name'><a class='nickname'><b>")
+				.append(user).append("</b></a></span>").append(message).append("</p>");
+		html.append("</div><span class='time-com'>").append(String.format("%02d:%02d 19/1", depth, key.length() % 60)).append("</span>");
+		if (depth < settings.depth) {
+			int i = 0;
+			for (; i < Math.min(VISIBLE_REPLIES, settings.replies); i++)
+				comment(html, hidden, key+"-"+i, depth+1);
+			if (i < settings.replies) {
+				StringBuilder rest = new StringBuilder();
+				for (; i < settings.replies; i++)
+					comment(rest, hidden, key+"-"+i, depth+1);
+				hidden.put(key, rest.toString());
+				html.append("<p class='count-reply'><a class='view_all_reply' href='javascript:void(0)' data-replies='")
+					.append(key).append("'>Xem t\u1ea5t c\u1ea3</a></p>");
+			}
+		}
+		html.append("</div>");
+	}
+
+	/* facebook */
+
+	private String login() {
+		return "<html><body><form method='post' action='/facebook/home'><div>"
+			+ "<input id='email' name='email'><input id='pass' name='pass' type='password'>"
+			+ "<button name='login' type='submit'>Log in</button>"
+			+ "</div></form></body></html>";
+	}
+
+	private String home() {
+		String logo = PostsScraper.ACCOUNT_LOGO_CSS.substring(PostsScraper.ACCOUNT_LOGO_CSS.indexOf("> div") + 2);
+		return "<html><body>" + chain(logo, "", "Me") + "</body></html>";
+	}
+
+	private String feed(int id) {
+		String time = PostsScraper.TIME_CSS;
+		// Tooltip holder: everything but the final span, which appears on hover
+		String holder = time.substring(time.indexOf('>') + 1, time.lastIndexOf('>')).trim();
+		StringBuilder html = new StringBuilder("<html><head><meta charset='utf-8'></head><body>")
+			.append(chain(holder, "id='tooltip'", ""))
+			.append("<div><div><div role='main'><div>");
+		for (int i = 1; i <= settings.posts; i++)
+			html.append("<div>")
+				.append(chain(PostsScraper.HOVER_CSS, "data-time='" + postTime(id, i) + "'", i + "h"))
+				.append(chain(PostsScraper.TEXT_CSS, "", "Post " + i + " of feed " + id))
+				.append(chain(PostsScraper.LIKES_CSS, "", (i * 7) + " likes"))
+				.append("</div>");
+		return html.append("</div></div></div></div>")
+			.append("<script>")
+			.append("var tooltip = document.getElementById('tooltip');")
+			.append("document.addEventListener('mouseover', function(e) {")
+			.append("  var target = e.target.closest('[data-time]');")
+			.append("  if (target != null) tooltip.innerHTML = '<span>' + target.dataset.time + '</span>';")
+			.append("});")
+			.append("document.addEventListener('mouseout', function(e) {")
+			.append("  if (e.target.closest('[data-time]') != null) tooltip.innerHTML = '';")
+			.append("});")
+			.append("</script></body></html>")
+			.toString();
+	}
+
+	/* Builds nested markup matched by a chain of 'tag:nth-child(k)[attr=value]' steps joined
+	 * by '>', padding with filler siblings to satisfy positional constraints. The leaf
+	 * (last step) gets the extra attributes and content.
+	 */
+	static String chain(String selector, String leafAttributes, String content) {
+		String[] steps = selector.split("\\s*>\\s*");
+		String html = content;
+		for (int i = steps.length-1; i >= 0; i--) {
+			Matcher matcher = STEP.matcher(steps[i].trim());
+			if (!matcher.matches())
+				throw new IllegalArgumentException("Unsupported selector step: "+steps[i]);
+			String tag = matcher.group(1).isEmpty() ? "span" : matcher.group(1),
+				attributes = matcher.group(4).replaceAll("\\[([^=\\]]+)=\"?([^\"\\]]*)\"?\\]", " $1='$2'");
+			StringBuilder element = new StringBuilder();
+			if (matcher.group(2) != null)		// nth-child: fillers of another tag
+				element.append("<i></i>".repeat(Integer.parseInt(matcher.group(2)) - 1));
+			else if (matcher.group(3) != null)	// nth-of-type: empty siblings of the same tag
+				element.append(("<"+tag+"></"+tag+">").repeat(Integer.parseInt(matcher.group(3)) - 1));
+			element.append('<').append(tag).append(attributes);
+			if (i == steps.length-1 && !leafAttributes.isEmpty())
+				element.append(' ').append(leafAttributes);
+			html = element.append('>').append(html).append("</").append(tag).append('>').toString();
+		}
+		return html;
+	}
+
+	/* Recorded pages */
+
+	/* Urls of every html file of the recorded directory (sorted), empty without one */
+	public List<String> recordedUrls() throws IOException {
+		if (settings.recorded == null)
+			return List.of();
+		try (Stream<Path> files = Files.walk(settings.recorded)) {
+			return files.filter(Files::isRegularFile)
+				.filter(file -> file.getFileName().toString().matches("(?i).*\\.html?"))
+				.map(file -> settings.recorded.relativize(file).toString().replace('\\', '/'))
+				.sorted()
+				.map(file -> getUrl("/recorded/"+encode(file)))	// saved pages often have spaces in their names
+				.collect(Collectors.toList());
+		}
+	}
+
+	private static String encode(String path) {
+		try {
+			return new URI(null, null, path, null).getRawPath();
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private void recorded(HttpExchange exchange) throws IOException {
+		Path file = settings.recorded == null ? null :
+			settings.recorded.resolve(exchange.getRequestURI().getPath().substring("/recorded/".length())).normalize();
+		if (file == null || !file.startsWith(settings.recorded) || !Files.isRegularFile(file)) {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+			return;
+		}
+		send(exchange, Files.readString(file, StandardCharsets.UTF_8));
+	}
+
+	/* Helpers */
+
+	private static int id(HttpExchange exchange) {
+		URI uri = exchange.getRequestURI();
+		String path = uri.getPath();
+		return Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+	}
+
+	private static String jsString(String value) {
+		return "'" + value.replace("\\", "\\\\").replace("'", "\\'").replace("</", "<\\/") + "'";
+	}
+
+	private void send(HttpExchange exchange, String html) throws IOException {
+		try {
+			Thread.sleep(settings.latency);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		byte[] body = html.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/* Serves the fixtures until killed, e.g. to point a browser at them */
+	public static void main(String[] args) throws Exception {
+		FixtureServer server = new FixtureServer(new Settings());
+		System.out.println("Article: "+server.articleUrl(1));
+		System.out.println("Login  : "+server.loginUrl());
+		System.out.println("Feed   : "+server.feedUrl(1));
+		Thread.currentThread().join();
+	}
+}
@@ -0,0 +1,81 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import scrape.Json;
+import target.vnexpress.Comment;
+import target.vnexpress.CommentsPage;
+
+/* Synthetic vnexpress-like data for the benchmarks */
+public class Fixtures {
+	private static final String MESSAGE = "\u0110\u00e3 30 T\u1ebft \u0111\u01b0\u1ee3c ch\u01b0a \u1ea1? \"Quoted\" text with\nnewlines and a \\ backslash. ";
+	
+	public static Comment comment(int i) {
+		return new Comment.Builder()
+			.setUser("User "+i)
+			.setMessage(MESSAGE.repeat(1 + i % 4))
+			.setTimestamp(String.format("%02d:%02d %d/1", i % 24, i % 60, 1 + i % 28))
+			.build();
+	}
+	
+	public static List<Comment> comments(int count) {
+		List<Comment> comments = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+			comments.add(comment(i)
+				.addReply(comment(i+1))
+				.addReply(comment(i+2)));
+		return comments;
+	}
+	
+	/* A chain of replies 'depth' levels deep, each level with 'fanout' replies */
+	public static Comment thread(int depth, int fanout) {
+		Comment root = comment(depth);
+		if (depth > 0) {
+			root.addReply(thread(depth-1, fanout));
+			for (int i = 1; i < fanout; i++)
+				root.addReply(comment(depth*fanout + i));
+		}
+		return root;
+	}
+	
+	public static CommentsPage page(int comments) {
+		return new CommentsPage.Builder()
+			.setUrl("https://vnexpress.net/fixture-"+comments+".html")
+			.setElements(comments(comments))
+			.build();
+	}
+	
+	public static List<CommentsPage> pages(int pages, int comments) {
+		List<CommentsPage> results = new ArrayList<>(pages);
+		for (int i = 0; i < pages; i++)
+			results.add(page(comments));
+		return results;
+	}
+	
+	/* Writes pages until the file reaches the given size, each one about a hundredth of it
+	 * so that the file doesn't overshoot by more than that
+	 */
+	public static Path file(long bytes) throws IOException {
+		Path path = Files.createTempFile("comments-", ".json");
+		path.toFile().deleteOnExit();
+		StringWriter sample = new StringWriter();
+		try (Json.PageWriter writer = new Json.PageWriter(sample)) {
+			writer.writePage(page(100));
+		}
+		long perComment = Math.max(1, sample.toString().getBytes(StandardCharsets.UTF_8).length / 100);	// replies included
+		CommentsPage page = page((int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / 100 / perComment)));
+		try (Json.PageWriter writer = Json.newPageWriter(path)) {
+			while (Files.size(path) < bytes) {
+				writer.writePage(page);
+				writer.flush();
+			}
+		}
+		return path;
+	}
+}
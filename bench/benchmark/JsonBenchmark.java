@@ -0,0 +1,44 @@
+package benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import scrape.Json;
+import target.vnexpress.CommentsPage;
+
+/* Json.of on lists of pages of growing size */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+	@Param({"1", "10", "100"})
+	private int pages;
+	@Param({"100"})
+	private int comments;
+	private List<CommentsPage> results;
+	
+	@Setup
+	public void setup() {
+		results = Fixtures.pages(pages, comments);
+	}
+	
+	@Benchmark
+	public String of() {
+		return Json.of(results);
+	}
+}
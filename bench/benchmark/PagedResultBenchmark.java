@@ -0,0 +1,62 @@
+package benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import target.vnexpress.Comment;
+import target.vnexpress.CommentsPage;
+
+/* Copying costs of PagedResult.Builder (the builder copies, then the page copies again) */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PagedResultBenchmark {
+	@Param({"100", "10000", "1000000"})
+	private int elements;
+	private List<Comment> comments;
+	
+	@Setup
+	public void setup() {
+		comments = Fixtures.comments(elements);
+	}
+	
+	@Benchmark
+	public CommentsPage setElements() {
+		return new CommentsPage.Builder()
+			.setUrl("https://vnexpress.net/fixture.html")
+			.setElements(comments)
+			.build();
+	}
+	
+	@Benchmark
+	public CommentsPage addElements() {
+		return new CommentsPage.Builder()
+			.setUrl("https://vnexpress.net/fixture.html")
+			.addElements(comments)
+			.build();
+	}
+	
+	@Benchmark
+	public CommentsPage addElement() {
+		CommentsPage.Builder builder = new CommentsPage.Builder();
+		for (Comment comment : comments)
+			builder.addElement(comment);
+		return builder.setUrl("https://vnexpress.net/fixture.html")
+			.build();
+	}
+}
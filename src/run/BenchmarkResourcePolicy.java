@@ -0,0 +1,97 @@
+package run;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openqa.selenium.By;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import scrape.Browser;
+import scrape.ResourcePolicy;
+
+/* Compares page-load time and bandwidth of the default browser against the lean
+ * resource policy, on a local fixture page shaped like a news article: a blocking
+ * third-party script (served from 'localhost' while the page is on '127.0.0.1'),
+ * lots of images, a web font and a video, all with artificial latency.
+ */
+public class BenchmarkResourcePolicy {
+	private static final int RUNS = 10, IMAGES = 40, IMAGE_SIZE = 200*1024, MEDIA_SIZE = 2*1024*1024;
+	private static final long LATENCY = 50;	// in ms, per resource
+	private static final AtomicLong SERVED = new AtomicLong();	// bytes sent for the current run
+
+	public static void main(String[] args) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		int port = server.getAddress().getPort();
+		server.createContext("/article", exchange -> send(exchange, "text/html", page(port).getBytes(StandardCharsets.UTF_8)));
+		server.createContext("/image", exchange -> send(exchange, "image/png", new byte[IMAGE_SIZE]));
+		server.createContext("/font", exchange -> send(exchange, "font/woff2", new byte[IMAGE_SIZE]));
+		server.createContext("/video", exchange -> send(exchange, "video/mp4", new byte[MEDIA_SIZE]));
+		server.createContext("/ads.js", exchange -> send(exchange, "text/javascript", "var ads = true;".getBytes(StandardCharsets.UTF_8)));
+		server.setExecutor(executor);
+		server.start();
+		try {
+			String url = "http://127.0.0.1:"+port+"/article";
+			benchmark("default", ResourcePolicy.none(), url);
+			benchmark("lean", ResourcePolicy.lean().blockDomains("localhost"), url);
+		} finally {
+			server.stop(0);
+			executor.shutdownNow();
+		}
+	}
+
+	private static void benchmark(String name, ResourcePolicy policy, String url) {
+		try (Browser browser = new Browser(true, policy)) {
+			browser.visit(url);		// warm-up
+			long time = 0, bytes = 0;
+			for (int i = 0; i < RUNS; i++) {
+				browser.deleteAllCookies();
+				SERVED.set(0);
+				long start = System.nanoTime();
+				browser.visit(url+"?run="+i)
+					.waitGet(By.id("comments"));
+				time += System.nanoTime() - start;
+				bytes += SERVED.get();
+			}
+			System.out.printf("%-8s: %8.1f ms/page, %8.1f KB/page%n",
+				name,
+				time / 1e6 / RUNS,
+				bytes / 1024.0 / RUNS);
+		}
+	}
+
+	private static String page(int port) {
+		StringBuilder html = new StringBuilder()
+			.append("<html><head>")
+			.append("<script src='http://localhost:").append(port).append("/ads.js'></script>")
+			.append("<style>@font-face { font-family: fixture; src: url('/font?f=1'); } body { font-family: fixture; }</style>")
+			.append("</head><body><h1>Fixture article</h1>")
+			.append("<video src='/video?v=1' autoplay preload='auto'></video>");
+		for (int i = 0; i < IMAGES; i++)
+			html.append("<img src='/image?i=").append(i).append("&t=").append(System.nanoTime()).append("'>");
+		return html.append("<div id='comments'>Comments</div></body></html>")
+			.toString();
+	}
+
+	private static void send(HttpExchange exchange, String type, byte[] body) throws IOException {
+		try {
+			Thread.sleep(LATENCY);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		exchange.getResponseHeaders().set("Content-Type", type);
+		exchange.getResponseHeaders().set("Cache-Control", "no-store");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+		SERVED.addAndGet(body.length);
+	}
+}
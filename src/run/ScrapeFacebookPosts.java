@@ -5,13 +5,13 @@ import java.nio.file.Paths;
 import java.util.List;
 import java.util.function.Predicate;
 
-import com.google.gson.internal.LinkedTreeMap;
+import scrape.AdaptiveWait;
+import scrape.BrowserMetrics;
 
 import target.facebook.Credentials;
 import target.facebook.Post;
+import target.facebook.PostsPage;
 import target.facebook.PostsScraper;
-import target.vnexpress.Comment;
-import target.vnexpress.CommentsScraper;
 
 /*  https://jsonformatter.curiousconcept.com/#
  *  for JSON pretty-printing since GSON makes it ugly */
@@ -19,11 +19,14 @@ public class ScrapeFacebookPosts {
 	public static void main(String[] args) throws Exception {
 		Credentials credentials = Credentials.fromFile(Paths.get("src/target/facebook/creds.txt"));
 		String[] urls = { "https://www.facebook.com/rmitvnconf/" };
-		Predicate<Post> stop = post -> post.getTime().contains("22:22");	// scrapes until time is 22:22
-		PostsScraper scraper = new PostsScraper(credentials, stop, urls);
-		Path path = scraper.serialize("data/posts.json");
+		Predicate<Post> stop = post -> post.getTime() != null && post.getTime().contains("22:22");	// scrapes until time is 22:22
+		BrowserMetrics.global().registerMBean("facebook");	// live view in jconsole
+		Path path = Paths.get("data/posts.json");
+		new PostsScraper(credentials, stop, new PostsScraper.Options().setOutput(path), urls);	// written page by page
+		System.out.println(BrowserMetrics.global());
+		System.out.println(AdaptiveWait.global());
 		// Deserialization
-		List<List<LinkedTreeMap<String, Comment>>> pages = CommentsScraper.deserialize(path.toString());
+		List<PostsPage> pages = PostsScraper.deserialize(path.toString());
 		pages.forEach(page -> page.forEach(System.out::println));
 	}
 }
\ No newline at end of file
@@ -1,17 +1,38 @@
 package run;
 
+import java.io.IOException;
+import java.util.List;
+
 import org.openqa.selenium.By;
-import org.openqa.selenium.WebElement;
+
+import com.google.gson.JsonObject;
 
 import scrape.Browser;
+import scrape.Fetcher;
+import scrape.Schema;
 
 public class ScrapeLogement {
-	public static void main(String[] args) {
+	// Every listing card in one round trip, see scrape.Schema
+	private static final Schema<JsonObject> LISTINGS = Schema.of("[data-test*=card-container]")
+		.text("text", "")
+		.attribute("link", "href", "a[href]")
+		.attribute("picture", "src", "img[src]");
+	
+	public static void main(String[] args) throws InterruptedException {
 		String url = "https://www.seloger.com/list.htm?projects=2,5&types=1,2&natures=1,2,4&places=[%7B%22inseeCodes%22:[490007]%7D]&proximities=0,10&price=NaN/150000&enterprise=0&qsVersion=1.0&m=search_refine";
-		try (Browser browser = new Browser(false)) {
-			WebElement element = browser.visit(url)
-				.waitGet(By.cssSelector("[data-test*=card-container]"));
-			System.out.println(element.getText());
+		// Cards are server-rendered, a browser is only needed when the html doesn't have them (e.g. bot check)
+		List<JsonObject> listings = List.of();
+		try (Fetcher fetcher = new Fetcher()) {
+			listings = LISTINGS.extract(fetcher.visit(url), null);
+		} catch (IOException e) {
+			System.err.println("Could not fetch listings: "+e);
 		}
+		if (listings.isEmpty())
+			try (Browser browser = new Browser(false)) {
+				browser.visit(url)
+					.waitGet(By.cssSelector(LISTINGS.getRecords()));
+				listings = LISTINGS.extract(browser, null);
+			}
+		listings.forEach(System.out::println);
 	}
 }
@@ -1,11 +1,13 @@
 package run;
 
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 
-import com.google.gson.internal.LinkedTreeMap;
+import scrape.AdaptiveWait;
+import scrape.BrowserMetrics;
 
-import target.vnexpress.Comment;
+import target.vnexpress.CommentsPage;
 import target.vnexpress.CommentsScraper;
 
 /*  https://jsonformatter.curiousconcept.com/#
@@ -16,10 +18,13 @@ public class ScrapeVNExpress {
 			"https://vnexpress.net/5-gio-nha-trang-don-dep-don-tan-tong-thong-4223047.html",
 			"https://vnexpress.net/them-mot-nguoi-nhat-o-ha-noi-duong-tinh-ncov-4235646.html"
 		};
-		CommentsScraper scraper = new CommentsScraper(urls);
-		Path path = scraper.serialize("data/comments.json");
+		BrowserMetrics.global().registerMBean("vnexpress");	// live view in jconsole
+		Path path = Paths.get("data/comments.json");
+		new CommentsScraper(new CommentsScraper.Options().setOutput(path), urls);	// written page by page
+		System.out.println(BrowserMetrics.global());
+		System.out.println(AdaptiveWait.global());
 		// Deserialisation
-		List<List<LinkedTreeMap<String, Comment>>> pages = CommentsScraper.deserialize(path.toString());
+		List<CommentsPage> pages = CommentsScraper.deserialize(path.toString());
 		pages.forEach(page -> page.forEach(System.out::println));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+package scrape;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.openqa.selenium.NotFoundException;
+import org.openqa.selenium.StaleElementReferenceException;
+
+/* Waits that poll fast first (a few ms) then back off exponentially, and that learn
+ * how long each selector usually takes to show up. The learned timeout is computed
+ * like TCP's retransmission timeout (RFC 6298): smoothed latency plus four times its
+ * mean deviation, doubled after every miss until a hit resets it. It only kicks in
+ * after a few hits, and never exceeds the caller's own timeout.
+ */
+public class AdaptiveWait {
+	public static final long INITIAL_POLLING = 5, MAX_POLLING = 500,	// in ms
+		MIN_TIMEOUT = 50;
+	public static final double BACKOFF = 1.5;
+	public static final int MIN_SAMPLES = 5;		// hits before the learned timeout is used
+	private static final int MAX_MISS_BACKOFF = 6;	// i.e. up to 64 times the learned timeout
+	private static final AdaptiveWait GLOBAL = new AdaptiveWait();	// shared by default by every browser
+
+	private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+	public static AdaptiveWait global() {
+		return GLOBAL;
+	}
+
+	/* Polls until the probe returns a non null (and non false) value, treating missing or
+	 * stale elements as not there yet. Returns null after the timeout (in ms).
+	 */
+	public <V> V poll(String key, Supplier<V> probe, long timeout) {
+		long start = System.nanoTime(), deadline = start + timeout*1_000_000, polling = INITIAL_POLLING;
+		while (true) {
+			try {
+				V value = probe.get();
+				if (value != null && !Boolean.FALSE.equals(value)) {
+					stats(key).hit((System.nanoTime() - start) / 1_000_000);
+					return value;
+				}
+			} catch (NotFoundException | StaleElementReferenceException e) {}	// not rendered yet
+			long remaining = (deadline - System.nanoTime()) / 1_000_000;
+			if (remaining <= 0) {
+				stats(key).miss();
+				return null;
+			}
+			try {
+				Thread.sleep(Math.min(polling, remaining));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			polling = Math.min(MAX_POLLING, (long) (polling * BACKOFF));
+		}
+	}
+
+	/* Same as poll, but bounded by what was learned about the key */
+	public <V> V pollLearned(String key, Supplier<V> probe, long maxTimeout) {
+		return poll(key, probe, timeout(key, maxTimeout));
+	}
+
+	public long timeout(String key, long maxTimeout) {
+		Stats stat = stats.get(key);
+		return stat == null ? maxTimeout : stat.timeout(maxTimeout);
+	}
+
+	private Stats stats(String key) {
+		return stats.computeIfAbsent(key, Stats::new);
+	}
+
+	/* Statistics */
+
+	public static class Stats {
+		private final String key;
+		private long hits, misses, last;
+		private double smoothed, deviation;	// in ms
+		private int backoff;
+
+		private Stats(String key) {
+			this.key = key;
+		}
+
+		private synchronized void hit(long latency) {
+			if (hits++ == 0) {
+				smoothed = latency;
+				deviation = latency / 2.0;
+			} else {
+				deviation = 0.75*deviation + 0.25*Math.abs(smoothed - latency);
+				smoothed = 0.875*smoothed + 0.125*latency;
+			}
+			last = latency;
+			backoff = 0;
+		}
+
+		private synchronized void miss() {
+			misses++;
+			backoff = Math.min(MAX_MISS_BACKOFF, backoff + 1);
+		}
+
+		private synchronized long timeout(long maxTimeout) {
+			if (hits < MIN_SAMPLES)
+				return maxTimeout;
+			long learned = (long) Math.max(MIN_TIMEOUT, smoothed + 4*deviation) << backoff;
+			return Math.min(maxTimeout, learned);
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public synchronized long getHits() {
+			return hits;
+		}
+
+		public synchronized long getMisses() {
+			return misses;
+		}
+
+		public synchronized double getSmoothedLatency() {
+			return smoothed;
+		}
+
+		public synchronized double getDeviation() {
+			return deviation;
+		}
+
+		public synchronized long getLastLatency() {
+			return last;
+		}
+
+		/* Learned timeout, as it would apply to a wait of up to the default timeout */
+		public long getTimeout() {
+			return timeout(Browser.DEFAULT_TIMEOUT*1000);
+		}
+
+		@Override
+		public synchronized String toString() {
+			return String.format("%6d hits %6d misses %9.1f ms latency %9.1f ms deviation %7d ms timeout  %s",
+				hits, misses, smoothed, deviation, getTimeout(), key);
+		}
+	}
+
+	/* Most waited on keys first */
+	public List<Stats> snapshot() {
+		List<Stats> snapshot = new ArrayList<>(stats.values());
+		snapshot.sort(Comparator.comparingLong((Stats stat) -> stat.getHits() + stat.getMisses()).reversed());
+		return snapshot;
+	}
+
+	public void reset() {
+		stats.clear();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder("Adaptive waits:\n");
+		for (Stats stat : snapshot())
+			report.append("  ").append(stat).append('\n');
+		return report.toString();
+	}
+}
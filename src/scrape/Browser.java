@@ -6,10 +6,15 @@ import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -25,7 +30,9 @@ import org.openqa.selenium.Dimension;
 import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.OutputType;
 import org.openqa.selenium.Point;
+import org.openqa.selenium.ScriptTimeoutException;
 import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.TimeoutException;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.firefox.FirefoxDriver;
@@ -42,14 +49,19 @@ import io.github.bonigarcia.wdm.WebDriverManager;
 /* Creates a browser using Selenium that follows the builder pattern
  * to ease with chained calls/actions. Also uses singleton pattern 
  * to reuse default instance, but still allows further browsers to be
- * created (e.g. public constructors).
+ * created (e.g. public constructors). For concurrent scraping prefer
+ * leasing browsers from a BrowserPool instead of the shared instance.
  * Docs: https://www.selenium.dev/documentation/en/webdriver/   
  */
 public class Browser implements Closeable {
 	public static final long DEFAULT_TIMEOUT = 15, DEFAULT_POLLING = 5;	// in seconds
+	public static final long WAIT_GET_TIMEOUT = 500;	// in ms, upper bound for optional elements
+	public static final long DEFAULT_SCRIPT_TIMEOUT = 30*1000;	// in ms, webdriver's own default
 	private static final boolean DEFAULT_HEADLESS = true;
 	public static final BiConsumer<Integer, Cookie> COOKIE_PRINTER = (i, c) -> System.out.printf("%d. %s%n", i, c.toString());
-	private static Browser INSTANCE;			// lazy-loaded through Browser::getInstance
+	private static volatile Browser INSTANCE;	// lazy-loaded through Browser::getInstance
+	// Async calls mostly wait on geckodriver, so each gets its own cheap virtual thread
+	static final ExecutorService ASYNC = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("browser-async-", 0).factory());
 	
 	static {
 		// Makes sure firefox driver exists or downloads it
@@ -57,20 +69,28 @@ public class Browser implements Closeable {
 	}
 
 	private RemoteWebDriver driver;
+	private BrowserMetrics metrics = BrowserMetrics.global();
+	private AdaptiveWait waits = AdaptiveWait.global();
+	private long scriptTimeout = DEFAULT_SCRIPT_TIMEOUT;	// in ms
+	private CompletableFuture<?> queue = CompletableFuture.completedFuture(null);	// last queued async call
 	
 	public Browser() {
 		this(DEFAULT_HEADLESS);
 	}
 	
 	public Browser(boolean headless) {
+		this(headless, ResourcePolicy.none());
+	}
+	
+	public Browser(boolean headless, ResourcePolicy policy) {
 		driver = new FirefoxDriver(
-			new FirefoxOptions()
+			policy.apply(new FirefoxOptions()
 				.setHeadless(headless)
 				.setAcceptInsecureCerts(true)
 				.addArguments(
 						"--disable-gpu",
 						"--window-size=1920,1200"
-				));
+				)));
 	}
 	
 	@Override
@@ -79,7 +99,7 @@ public class Browser implements Closeable {
 	}
 	
 	public Browser visit(String url) {
-		driver.navigate().to(url);
+		metrics.time("visit", null, () -> driver.navigate().to(url));
 		return this;
 	}
 	
@@ -87,6 +107,20 @@ public class Browser implements Closeable {
 		driver.quit();
 	}
 	
+	/* Health check: a crashed or quit driver either lost its session or
+	 * fails on the cheapest remote call we can make.
+	 */
+	public boolean isAlive() {
+		if (driver.getSessionId() == null)
+			return false;
+		try {
+			driver.getCurrentUrl();
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+	
 	public String getTitle() {
 		return driver.getTitle();
 	}
@@ -119,6 +153,26 @@ public class Browser implements Closeable {
 		return this;
 	}
 	
+	/* Every remote call is timed into the global metrics unless told otherwise */
+	public Browser setMetrics(BrowserMetrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+	
+	public BrowserMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/* Element waits learn per selector latencies into the global instance unless told otherwise */
+	public Browser setWaits(AdaptiveWait waits) {
+		this.waits = waits;
+		return this;
+	}
+	
+	public AdaptiveWait getWaits() {
+		return waits;
+	}
+	
 	public Browser then(Consumer<WebDriver> consumer) {
 		consumer.accept(driver);
 		return this;
@@ -207,30 +261,102 @@ public class Browser implements Closeable {
 	/* Wait/delays handling */
 	
 	public WebElement get(By by) {
-		try {
-			return driver.findElement(by);
-		} catch (Exception e) {
-			return null;
-		}
+		return get(by, by);
+	}
+	
+	/* Metrics are kept under the label (e.g. the format a per-element selector is built from)
+	 * instead of the selector, so that they don't get a new entry for every element
+	 */
+	public WebElement get(By by, Object label) {
+		return metrics.time("get", label, () -> {
+			try {
+				return driver.findElement(by);
+			} catch (Exception e) {
+				return null;
+			}
+		});
 	}
 	
 	public List<WebElement> getAll(By by) {
-		try {
-			return driver.findElements(by);
-		} catch (Exception e) {
-			return new ArrayList<>();
-		}
+		return metrics.time("getAll", by, () -> {
+			try {
+				return driver.findElements(by);
+			} catch (Exception e) {
+				return new ArrayList<WebElement>();
+			}
+		});
+	}
+	
+	/* Same as root.findElement(by) (throws if missing) but timed */
+	public WebElement find(WebElement root, By by) {
+		return metrics.time("find", by, () -> root.findElement(by));
+	}
+	
+	public List<WebElement> findAll(WebElement root, By by) {
+		return metrics.time("findAll", by, () -> root.findElements(by));
+	}
+	
+	/* Batch lookups: resolves a whole map of named css selectors under the root (or the
+	 * document when null) in a single script instead of one round trip per selector.
+	 * Names that have an attribute read that attribute instead of the text.
+	 * args: root, {name: selector}, {name: attribute}, whether to return the elements themselves
+	 */
+	private static final String LOOKUP_SCRIPT = String.join("\n",
+		"var root = arguments[0] || document, selectors = arguments[1], attributes = arguments[2],",
+		"  elements = arguments[3], result = {};",
+		"Object.keys(selectors).forEach(function(name) {",
+		"  var found = root.querySelector(selectors[name]), attribute = attributes[name];",
+		"  result[name] = found == null ? null : ",
+		"    elements ? found : ",
+		"    attribute != null ? found.getAttribute(attribute) : found.innerText.trim();",
+		"});",
+		"return result;");
+	
+	/* Texts keyed by name in the given order, missing ones are mapped to null */
+	public Map<String, String> lookup(@Nullable WebElement root, Map<String, String> selectors) {
+		return lookup(root, selectors, Map.of());
+	}
+	
+	/* Same, but names with an entry in attributes (name -> attribute) read that attribute */
+	public Map<String, String> lookup(@Nullable WebElement root, Map<String, String> selectors, Map<String, String> attributes) {
+		return lookup(root, selectors, attributes, false);
+	}
+	
+	/* Same as lookup but returns the elements, e.g. to click or hover them afterwards */
+	public Map<String, WebElement> lookupElements(@Nullable WebElement root, Map<String, String> selectors) {
+		return lookup(root, selectors, Map.of(), true);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T> Map<String, T> lookup(WebElement root, Map<String, String> selectors, Map<String, String> attributes, boolean elements) {
+		Map<String, Object> found = metrics.time(elements ? "lookupElements" : "lookup", selectors.keySet().toString(), 
+			() -> (Map<String, Object>) jsExecutor().executeScript(LOOKUP_SCRIPT, root, selectors, attributes, elements));
+		Map<String, T> result = new LinkedHashMap<>();
+		for (String name : selectors.keySet())
+			result.put(name, found == null ? null : (T) found.get(name));
+		return result;
 	}
 	
+	/* Optional elements: null if the element didn't show up within what's usual for 
+	 * its selector (once learned), or the given timeout in ms at most.
+	 */
 	public WebElement waitGet(By by) {
-		return waitUntil(driver -> driver.findElement(by));
+		return waitGet(by, WAIT_GET_TIMEOUT);
+	}
+	
+	public WebElement waitGet(By by, long timeout) {
+		return metrics.time("waitGet", by, () -> waits.pollLearned(by.toString(), () -> driver.findElement(by), timeout));
 	}
 	
 	public List<WebElement> waitGetAll(By by) {
-		return waitUntil(driver -> driver.findElements(by));
+		return metrics.time("waitGetAll", by, () -> untimedWaitUntil(driver -> driver.findElements(by)));
 	}
 	
 	public <V> V waitUntil(Function<? super RemoteWebDriver, V> isTrue) {
+		return metrics.time("waitUntil", null, () -> untimedWaitUntil(isTrue));
+	}
+	
+	private <V> V untimedWaitUntil(Function<? super RemoteWebDriver, V> isTrue) {
 		try {
 			return new FluentWait<>(driver)
 				.until(isTrue);
@@ -246,8 +372,8 @@ public class Browser implements Closeable {
 	}
 	
 	public Browser waitFor(Function<? super WebDriver, Boolean> isTrue, long timeout) {
-		new WebDriverWait(driver, timeout)
-			.until(isTrue);
+		metrics.time("waitFor", null, () -> new WebDriverWait(driver, timeout)
+			.until(isTrue));
 		return this;
 	}
 	
@@ -256,17 +382,17 @@ public class Browser implements Closeable {
 	}
 	
 	public Browser waitFor(By by, long timeout, Collection<Consumer<WebElement>> consumers) {
-		WebElement element = new WebDriverWait(driver, timeout)
-				.until(driver -> driver.findElement(by));
+		WebElement element = metrics.time("waitFor", by, () -> new WebDriverWait(driver, timeout)
+				.until(driver -> driver.findElement(by)));
 		return handle(element, consumers);
 	}
 	
 	public Browser waitFor(By by, long timeout, long polling, Collection<Class<? extends Throwable>> exceptions, Collection<Consumer<WebElement>> consumers) {
-		WebElement element = new FluentWait<>(driver)
+		WebElement element = metrics.time("waitFor", by, () -> new FluentWait<>(driver)
 				.withTimeout(Duration.ofSeconds(timeout))
 				.pollingEvery(Duration.ofSeconds(polling))
 				.ignoreAll(exceptions)
-				.until(driver -> driver.findElement(by));
+				.until(driver -> driver.findElement(by)));
 		return handle(element, consumers);
 	}
 	
@@ -278,8 +404,14 @@ public class Browser implements Closeable {
 		return waitFor(by, timeout, polling, NoSuchElementException.class, actions);
 	}
 	
+	/* Required elements: polls with backoff (so fast pages aren't held back by the polling 
+	 * period) but always allows the whole default timeout before failing.
+	 */
 	public Browser waitFor(By by, Collection<Consumer<WebElement>> actions) {
-		return waitFor(by, DEFAULT_TIMEOUT, actions);
+		WebElement element = metrics.time("waitFor", by, () -> waits.poll(by.toString(), () -> driver.findElement(by), DEFAULT_TIMEOUT*1000));
+		if (element == null)
+			throw new TimeoutException("Timed out after "+DEFAULT_TIMEOUT+"s waiting for "+by);
+		return handle(element, actions);
 	}
 	
 	public Browser waitFor(By by, long timeout, long polling, Class<? extends Throwable> exception) {
@@ -291,7 +423,7 @@ public class Browser implements Closeable {
 	}
 	
 	public Browser waitFor(By by) {
-		return waitFor(by, DEFAULT_TIMEOUT, Arrays.asList());
+		return waitFor(by, Arrays.asList());
 	}
 	
 	public Browser waitUntilLoaded() {
@@ -299,8 +431,8 @@ public class Browser implements Closeable {
 	}
 	
 	public Browser waitUntilLoaded(long seconds) {
-		new WebDriverWait(driver, seconds)
-			.until(pageLoadedCondition());
+		metrics.time("waitLoaded", null, () -> new WebDriverWait(driver, seconds)
+			.until(pageLoadedCondition()));
 		return this;
 	}
 	
@@ -310,6 +442,83 @@ public class Browser implements Closeable {
 			.equals("complete");
 	}
 	
+	/* Event-driven waits: instead of sleeping or polling from our side, a MutationObserver
+	 * is installed in the page which calls back as soon as the selector reaches the wanted 
+	 * state and the DOM stayed quiet (no mutations) for the given quiet period. Settling
+	 * only watches the matched element's subtree, the rest of the page may keep changing.
+	 * args: css selector, state, quiet period (ms), timeout (ms), async callback
+	 */
+	private static final String MUTATION_WAIT_SCRIPT = String.join("\n",
+		"var selector = arguments[0], state = arguments[1], quiet = arguments[2], timeout = arguments[3],",
+		"  done = arguments[arguments.length - 1], quietTimer = null, finished = false, target = null,",
+		"  everything = { childList: true, subtree: true, attributes: true, characterData: true };",
+		"function holds() {",
+		"  var present = document.querySelector(selector) != null;",
+		"  return state == 'DISAPPEARS' ? !present : present;",
+		"}",
+		"function finish(result) {",
+		"  if (finished) return;",
+		"  finished = true;",
+		"  observer.disconnect();",
+		"  settling.disconnect();",
+		"  clearTimeout(deadline);",
+		"  clearTimeout(quietTimer);",
+		"  done(result);",
+		"}",
+		"function check() {",
+		"  clearTimeout(quietTimer);",
+		"  if (!holds()) return;",
+		"  if (quiet <= 0 && state != 'SETTLES') return finish(true);",
+		"  quietTimer = setTimeout(function() { finish(holds()); }, quiet);",
+		"}",
+		// When settling the document is only watched for the element being (re)placed
+		"function retarget() {",
+		"  var element = document.querySelector(selector);",
+		"  if (element === target) return;",
+		"  target = element;",
+		"  settling.disconnect();",
+		"  if (target != null) settling.observe(target, everything);",
+		"  check();",
+		"}",
+		"var settling = new MutationObserver(check);",
+		"var observer = new MutationObserver(state == 'SETTLES' ? retarget : check);",
+		"var deadline = setTimeout(function() { finish(false); }, timeout);",
+		"observer.observe(document.documentElement, state == 'SETTLES' ? { childList: true, subtree: true } : everything);",
+		"state == 'SETTLES' ? retarget() : check();");
+	
+	public static enum DomState { APPEARS, DISAPPEARS, SETTLES }
+	
+	/* Returns true if the selector reached the state before the timeout, both in ms */
+	public boolean waitForDom(String cssSelector, DomState state, long quiet, long timeout) {
+		return metrics.time("wait"+state.name().charAt(0)+state.name().substring(1).toLowerCase(), cssSelector, () -> {
+			long previous = scriptTimeout;
+			setScriptTimeout(timeout + DEFAULT_TIMEOUT*1000);
+			try {
+				Object result = jsExecutor().executeAsyncScript(MUTATION_WAIT_SCRIPT, cssSelector, state.name(), quiet, timeout);
+				return Boolean.TRUE.equals(result);
+			} catch (ScriptTimeoutException e) {
+				return false;
+			} finally {
+				setScriptTimeout(previous);
+			}
+		});
+	}
+	
+	public Browser waitForAppear(String cssSelector, long timeout) {
+		waitForDom(cssSelector, DomState.APPEARS, 0, timeout);
+		return this;
+	}
+	
+	public Browser waitForDisappear(String cssSelector, long timeout) {
+		waitForDom(cssSelector, DomState.DISAPPEARS, 0, timeout);
+		return this;
+	}
+	
+	public Browser waitForSettle(String cssSelector, long quiet, long timeout) {
+		waitForDom(cssSelector, DomState.SETTLES, quiet, timeout);
+		return this;
+	}
+	
 	/* User handling + simulated actions */
 	
 	public JavascriptExecutor jsExecutor() {
@@ -317,10 +526,18 @@ public class Browser implements Closeable {
 	}
 	
 	public Browser execute(String code, Object...args) {
-		jsExecutor().executeScript(code, args);
+		metrics.time("execute", null, () -> jsExecutor().executeScript(code, args));
 		return this;
 	}
 	
+	/* Same as execute but returns whatever the script returned, e.g. a 
+	 * String/Long/Boolean/List/Map or WebElement depending on the script. 
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T evaluate(String code, Object...args) {
+		return (T) metrics.time("evaluate", null, () -> jsExecutor().executeScript(code, args));
+	}
+	
 	public Actions actions() {
 		return new Actions(driver);
 	}
@@ -334,7 +551,7 @@ public class Browser implements Closeable {
 	}
 	
 	public Browser type(final String input, By by) {
-		waitFor(by, Arrays.asList(element -> element.sendKeys(input)));
+		metrics.time("type", by, () -> waitFor(by, Arrays.asList(element -> element.sendKeys(input))));
 		return this;
 	}
 	
@@ -345,7 +562,7 @@ public class Browser implements Closeable {
 	public Browser click(@Nullable Consumer<Throwable> onError, By...bys) {
 		for (By by : bys)
 			try { 
-				waitGet(by).click(); 
+				metrics.time("click", by, () -> waitGet(by).click()); 
 			} catch (Exception e) {
 				if (onError != null)
 					onError.accept(e);
@@ -454,9 +671,9 @@ public class Browser implements Closeable {
 	}
 	
 	public Browser hover(WebElement element) {
-		actions()
+		metrics.time("hover", null, () -> actions()
 			.moveToElement(element)
-			.perform();
+			.perform());
 		return this;
 	}
 	
@@ -475,11 +692,13 @@ public class Browser implements Closeable {
 	}
 	
 	public Browser sleep(long millis) {
-		try {
-			Thread.sleep(millis);
-		} catch (InterruptedException e) {
-			System.err.println("Could not sleep for "+millis+"ms");
-		}
+		metrics.time("sleep", null, () -> {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				System.err.println("Could not sleep for "+millis+"ms");
+			}
+		});
 		return this;
 	}
 	
@@ -488,6 +707,17 @@ public class Browser implements Closeable {
 		return this;
 	}
 	
+	/* Async scripts timeout in ms (the driver can't be asked for it, so it's tracked here) */
+	public Browser setScriptTimeout(long millis) {
+		driver.manage().timeouts().setScriptTimeout(millis, TimeUnit.MILLISECONDS);
+		scriptTimeout = millis;
+		return this;
+	}
+	
+	public long getScriptTimeout() {
+		return scriptTimeout;
+	}
+	
 	/* Convenience methods */
 	
 	public <T> Browser forEach(Supplier<Collection<T>> supplier, Predicate<T> filter, Consumer<T> action) {
@@ -505,18 +735,53 @@ public class Browser implements Closeable {
 		return this;
 	}
 	
+	/* Async facade: calls run on virtual threads but are queued per browser, so that
+	 * they reach the driver one at a time and in submission order (a WebDriver session 
+	 * isn't thread-safe). A failed call doesn't cancel the ones queued after it. Don't 
+	 * mix in synchronous calls while async ones are pending.
+	 */
+	
+	public synchronized <T> CompletableFuture<T> async(Function<Browser, T> action) {
+		CompletableFuture<T> result = queue
+			.handle((previous, error) -> null)
+			.thenApplyAsync(ignored -> action.apply(this), ASYNC);
+		queue = result;
+		return result;
+	}
+	
+	public CompletableFuture<Browser> visitAsync(String url) {
+		return async(browser -> browser.visit(url));
+	}
+	
+	/* Completes with the element, or null if it didn't show up in time */
+	public CompletableFuture<WebElement> waitForAsync(By by) {
+		return async(browser -> browser.waitGet(by));
+	}
+	
+	public CompletableFuture<Boolean> waitForAsync(String cssSelector, DomState state, long quiet, long timeout) {
+		return async(browser -> browser.waitForDom(cssSelector, state, quiet, timeout));
+	}
+	
+	public <T> CompletableFuture<List<T>> extractAsync(Schema<T> schema, @Nullable WebElement root) {
+		return async(browser -> schema.extract(browser, root));
+	}
+	
 	/* Static methods to act on default singleton instance */
 	
-	public static Browser restart() {
+	public static synchronized Browser restart() {
 		if (INSTANCE != null) 
 			INSTANCE.kill();
 		return INSTANCE = new Browser();
 	}
 	
 	public static Browser getInstance() {
-		if (INSTANCE == null)
-			INSTANCE = new Browser();
-		return INSTANCE;
+		Browser instance = INSTANCE;
+		if (instance == null)
+			synchronized (Browser.class) {
+				if ((instance = INSTANCE) == null)
+					instance = INSTANCE = new Browser();
+			}
+		return instance;
 	}
 	
 	public static class ScrollOptions {
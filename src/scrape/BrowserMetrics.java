@@ -0,0 +1,207 @@
+package scrape;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/* Records counts, cumulative time and latency histograms of browser operations,
+ * per operation and per selector. Recording is lock-free (adders and a fixed
+ * array of power-of-two buckets), so it can stay on while scraping. Times are
+ * inclusive: an operation built on another one (e.g. click -> waitGet) is
+ * counted under both.
+ */
+public class BrowserMetrics implements BrowserMetricsMBean {
+	public static final String NO_SELECTOR = "*";
+	private static final int BUCKETS = 40;	// bucket i counts latencies in [2^(i-1), 2^i) microseconds
+	private static final BrowserMetrics GLOBAL = new BrowserMetrics();	// shared by default by every browser
+
+	private final Map<String, Map<Object, Timer>> timers = new ConcurrentHashMap<>();	// operation -> selector -> timer
+	private volatile boolean enabled = true;
+
+	public static BrowserMetrics global() {
+		return GLOBAL;
+	}
+
+	/* Recording */
+
+	/* The selector keys the stats, so it has to come from a bounded set (e.g. a selector
+	 * template rather than every selector built from it)
+	 */
+	public void record(String operation, Object selector, long nanos) {
+		if (!enabled)
+			return;
+		timers.computeIfAbsent(operation, key -> new ConcurrentHashMap<>())
+			.computeIfAbsent(selector == null ? NO_SELECTOR : selector, key -> new Timer())
+			.record(nanos);
+	}
+
+	public <T> T time(String operation, Object selector, Supplier<T> call) {
+		if (!enabled)
+			return call.get();
+		long start = System.nanoTime();
+		try {
+			return call.get();
+		} finally {
+			record(operation, selector, System.nanoTime() - start);
+		}
+	}
+
+	public void time(String operation, Object selector, Runnable call) {
+		time(operation, selector, () -> {
+			call.run();
+			return null;
+		});
+	}
+
+	private static class Timer {
+		private final LongAdder count = new LongAdder(), total = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+		private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+		void record(long nanos) {
+			count.increment();
+			total.add(nanos);
+			max.accumulate(nanos);
+			long micros = nanos / 1000;
+			histogram.incrementAndGet(Math.min(BUCKETS-1, 64 - Long.numberOfLeadingZeros(micros)));
+		}
+	}
+
+	/* Snapshots */
+
+	/* Immutable view of one operation/selector pair, times in ms */
+	public static class Stat {
+		public final String operation, selector;
+		public final long count;
+		public final double total, mean, max, p50, p90, p99;
+
+		private Stat(String operation, Object selector, Timer timer) {
+			this.operation = operation;
+			this.selector = selector.toString();
+			long[] buckets = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++)
+				buckets[i] = timer.histogram.get(i);
+			count = timer.count.sum();
+			total = timer.total.sum() / 1e6;
+			mean = count == 0 ? 0 : total / count;
+			max = timer.max.get() / 1e6;
+			p50 = Math.min(max, percentile(buckets, 0.50));
+			p90 = Math.min(max, percentile(buckets, 0.90));
+			p99 = Math.min(max, percentile(buckets, 0.99));
+		}
+
+		// Upper bound of the bucket holding the percentile
+		private static double percentile(long[] buckets, double percentile) {
+			long total = 0, seen = 0;
+			for (long bucket : buckets)
+				total += bucket;
+			for (int i = 0; i < BUCKETS; i++)
+				if ((seen += buckets[i]) >= Math.ceil(percentile * total) && seen > 0)
+					return (1L << i) / 1e3;
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-12s %8d calls %12.1f ms total %9.2f mean %9.2f p50 %9.2f p90 %9.2f p99 %9.2f max  %s",
+				operation, count, total, mean, p50, p90, p99, max, selector);
+		}
+	}
+
+	/* Every recorded pair, most time consuming first */
+	public List<Stat> snapshot() {
+		List<Stat> stats = new ArrayList<>();
+		timers.forEach((operation, selectors) ->
+			selectors.forEach((selector, timer) -> stats.add(new Stat(operation, selector, timer))));
+		stats.sort(Comparator.comparingDouble((Stat stat) -> stat.total).reversed());
+		return stats;
+	}
+
+	/* Totals per operation, all selectors merged */
+	public List<Stat> snapshotByOperation() {
+		List<Stat> stats = new ArrayList<>();
+		timers.forEach((operation, selectors) -> {
+			Timer merged = new Timer();
+			selectors.values().forEach(timer -> {
+				merged.count.add(timer.count.sum());
+				merged.total.add(timer.total.sum());
+				merged.max.accumulate(timer.max.get());
+				for (int i = 0; i < BUCKETS; i++)
+					merged.histogram.addAndGet(i, timer.histogram.get(i));
+			});
+			stats.add(new Stat(operation, NO_SELECTOR, merged));
+		});
+		stats.sort(Comparator.comparingDouble((Stat stat) -> stat.total).reversed());
+		return stats;
+	}
+
+	/* JMX */
+
+	/* Exposes these metrics under scrape:type=BrowserMetrics,name=<name> */
+	public BrowserMetrics registerMBean(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName("scrape:type=BrowserMetrics,name="+ObjectName.quote(name));
+			if (!server.isRegistered(objectName))
+				server.registerMBean(this, objectName);
+		} catch (JMException e) {
+			System.err.println("Could not register browser metrics MBean: "+e);
+		}
+		return this;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public long getCalls() {
+		return timers.values().stream()
+			.flatMap(selectors -> selectors.values().stream())
+			.mapToLong(timer -> timer.count.sum())
+			.sum();
+	}
+
+	@Override
+	public String[] getOperations() {
+		return snapshotByOperation().stream().map(Stat::toString).toArray(String[]::new);
+	}
+
+	@Override
+	public String[] getSelectors() {
+		return snapshot().stream().map(Stat::toString).toArray(String[]::new);
+	}
+
+	@Override
+	public void reset() {
+		timers.clear();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder("Browser operations:\n");
+		for (Stat stat : snapshotByOperation())
+			report.append("  ").append(stat).append('\n');
+		report.append("Per selector:\n");
+		for (Stat stat : snapshot())
+			report.append("  ").append(stat).append('\n');
+		return report.toString();
+	}
+}
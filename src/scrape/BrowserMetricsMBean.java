@@ -0,0 +1,16 @@
+package scrape;
+
+/* JMX view of BrowserMetrics, e.g. for jconsole while a scrape is running */
+public interface BrowserMetricsMBean {
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	long getCalls();
+
+	String[] getOperations();
+
+	String[] getSelectors();
+
+	void reset();
+}
@@ -0,0 +1,233 @@
+package scrape;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/* Thread-safe pool of browsers that pre-warms a few sessions (since a cold
+ * FirefoxDriver startup is the most expensive thing we do) and leases them
+ * out with borrow/release semantics. Browsers are health-checked before being
+ * handed out, and idle ones above the warm count get evicted periodically.
+ */
+public class BrowserPool implements Closeable {
+	public static final int DEFAULT_SIZE = Runtime.getRuntime().availableProcessors();
+	public static final long DEFAULT_BORROW_TIMEOUT = 60*1000,	// in ms
+		DEFAULT_IDLE_TIMEOUT = 5*60*1000,
+		EVICTION_PERIOD = 30*1000,
+		NO_TIMEOUT = Long.MAX_VALUE;	// borrow waits as long as the pool is open
+	private static final long WAIT_SLICE = 1000;	// in ms, waiting borrowers recheck the pool this often
+
+	private final Supplier<Browser> factory;
+	private final int size, warm;
+	private final long idleTimeout;
+	private final LinkedBlockingDeque<Browser> idle;
+	private final Map<Browser, Long> lastUsed;			// idle browsers -> time of release
+	private final Map<Browser, Boolean> leased;
+	private final AtomicInteger created;
+	private final ScheduledExecutorService evictor;
+	private volatile boolean closed;
+
+	public BrowserPool() {
+		this(DEFAULT_SIZE);
+	}
+
+	public BrowserPool(int size) {
+		this(size, ResourcePolicy.none());
+	}
+	
+	public BrowserPool(int size, ResourcePolicy policy) {
+		this(size, size, DEFAULT_IDLE_TIMEOUT, () -> new Browser(true, policy));
+	}
+
+	public BrowserPool(int size, int warm, long idleTimeout, Supplier<Browser> factory) {
+		if (size < 1)
+			throw new IllegalArgumentException("Pool size has to be positive");
+		if (warm < 0 || warm > size)
+			throw new IllegalArgumentException("Warm count has to be in [0, size]");
+		this.size = size;
+		this.warm = warm;
+		this.idleTimeout = idleTimeout;
+		this.factory = factory;
+		idle = new LinkedBlockingDeque<>();
+		lastUsed = new ConcurrentHashMap<>();
+		leased = new ConcurrentHashMap<>();
+		created = new AtomicInteger();
+		evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "browser-pool-evictor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		evictor.scheduleWithFixedDelay(this::evictIdle, EVICTION_PERIOD, EVICTION_PERIOD, TimeUnit.MILLISECONDS);
+		prewarm();
+	}
+
+	// Starts the warm browsers in parallel since each startup is mostly spent waiting on geckodriver
+	private void prewarm() {
+		List<Thread> starters = new ArrayList<>();
+		for (int i = 0; i < warm; i++) {
+			Thread thread = new Thread(() -> {
+				Browser browser = create();
+				if (browser != null)
+					offer(browser);
+			}, "browser-pool-warmup-"+i);
+			starters.add(thread);
+			thread.start();
+		}
+		for (Thread thread : starters)
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+	}
+
+	/* Leasing */
+
+	public Browser borrow() throws InterruptedException {
+		return borrow(DEFAULT_BORROW_TIMEOUT);
+	}
+
+	public Browser borrow(long timeout) throws InterruptedException {
+		long deadline = timeout == NO_TIMEOUT ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+		while (!closed) {
+			Browser browser = idle.pollFirst();
+			if (browser == null)
+				browser = create();
+			if (browser == null) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					throw new IllegalStateException("Timed out waiting for a browser after "+timeout+"ms");
+				// Waits by slices so that closing the pool or discarding a browser (i.e. room to create one) is noticed
+				browser = idle.pollFirst(Math.min(remaining, WAIT_SLICE), TimeUnit.MILLISECONDS);
+				if (browser == null)
+					continue;
+			}
+			lastUsed.remove(browser);
+			if (browser.isAlive()) {
+				leased.put(browser, true);
+				return browser;
+			}
+			discard(browser);	// unhealthy, try again with another one
+		}
+		throw new IllegalStateException("Browser pool is closed");
+	}
+
+	public void release(Browser browser) {
+		if (browser == null || leased.remove(browser) == null)
+			return;
+		if (closed || !browser.isAlive())
+			discard(browser);
+		else
+			offer(browser);
+	}
+
+	/* Runs the given action on a leased browser, and always returns it to the pool */
+	public <T> T with(Function<Browser, T> action) throws InterruptedException {
+		return with(DEFAULT_BORROW_TIMEOUT, action);
+	}
+	
+	public <T> T with(long timeout, Function<Browser, T> action) throws InterruptedException {
+		Browser browser = borrow(timeout);
+		try {
+			return action.apply(browser);
+		} finally {
+			release(browser);
+		}
+	}
+
+	/* Runs the action on a virtual thread once a browser is free, so any number of jobs
+	 * can be in flight without holding a platform thread each while they wait their turn.
+	 * Jobs wait for as long as it takes (i.e. behind however many slow pages are queued).
+	 */
+	public <T> CompletableFuture<T> submit(Function<Browser, T> action) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return with(NO_TIMEOUT, action);
+			} catch (InterruptedException e) {
+				throw new CompletionException(e);
+			}
+		}, Browser.ASYNC);
+	}
+	
+	/* Lifecycle */
+
+	private Browser create() {
+		int current;
+		do {
+			current = created.get();
+			if (current >= size)
+				return null;
+		} while (!created.compareAndSet(current, current+1));
+		try {
+			return factory.get();
+		} catch (RuntimeException e) {
+			created.decrementAndGet();
+			throw e;
+		}
+	}
+
+	private void offer(Browser browser) {
+		lastUsed.put(browser, System.currentTimeMillis());
+		idle.offerFirst(browser);	// LIFO so that the least recently used ones age out
+	}
+
+	private void discard(Browser browser) {
+		lastUsed.remove(browser);
+		created.decrementAndGet();
+		try {
+			browser.kill();
+		} catch (Exception e) {}	// already dead
+	}
+
+	private void evictIdle() {
+		long now = System.currentTimeMillis();
+		Iterator<Browser> iterator = idle.descendingIterator();	// oldest first
+		while (iterator.hasNext() && created.get() > warm) {
+			Browser browser = iterator.next();
+			Long released = lastUsed.get(browser);
+			if (released != null && now - released > idleTimeout && idle.remove(browser))
+				discard(browser);
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getCreated() {
+		return created.get();
+	}
+
+	public int getIdle() {
+		return idle.size();
+	}
+
+	public int getLeased() {
+		return leased.size();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		evictor.shutdownNow();
+		Browser browser;
+		while ((browser = idle.pollFirst()) != null)
+			discard(browser);
+		for (Browser leasedBrowser : leased.keySet())	// whoever still holds them loses them
+			if (leased.remove(leasedBrowser) != null)
+				discard(leasedBrowser);
+	}
+}
@@ -0,0 +1,147 @@
+package scrape;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/* Crawl checkpoints stored in a directory as two append-only NDJSON logs: every
+ * scraped element as soon as it's produced, and the metadata of every completed
+ * page. Re-opening the same directory restores finished pages (so they can be
+ * skipped) and the elements of the unfinished ones (so they can be resumed).
+ * Completed pages log their url, or {"url", "truncated"} if they stopped early.
+ * Elements can be saved with their position in the page (e.g. the index of the
+ * top-level comment they come from), logged as the line's count plus one.
+ */
+public class Checkpoint<T, P extends PagedResult<T>> implements Closeable {
+	private static final String ELEMENTS_LOG = "elements.ndjson",
+		PAGES_LOG = "pages.ndjson";
+
+	private final Supplier<? extends PagedResult.Builder<T, P>> builders;
+	private final Map<String, P> finished;			// restored from the logs
+	private final Set<String> completed;			// since then, not kept in memory (they're the caller's)
+	private final Map<String, List<T>> partial;
+	private final Map<String, LocalDateTime> started;
+	private final Map<String, Integer> saved;		// logged elements per page
+	private final Map<String, Integer> resume;		// position after the last saved element's one
+	private final Json.LineWriter elements, pages;
+
+	public Checkpoint(Path directory, Class<T> elementType, Supplier<? extends PagedResult.Builder<T, P>> builders) throws IOException {
+		this.builders = builders;
+		finished = new ConcurrentHashMap<>();
+		completed = ConcurrentHashMap.newKeySet();
+		partial = new ConcurrentHashMap<>();
+		started = new ConcurrentHashMap<>();
+		saved = new ConcurrentHashMap<>();
+		resume = new ConcurrentHashMap<>();
+		Files.createDirectories(directory);
+		restore(directory.resolve(ELEMENTS_LOG), directory.resolve(PAGES_LOG), elementType);
+		elements = Json.newLineWriter(directory.resolve(ELEMENTS_LOG), 1);
+		pages = Json.newLineWriter(directory.resolve(PAGES_LOG), 1);
+	}
+
+	private void restore(Path elementsLog, Path pagesLog, Class<T> elementType) throws IOException {
+		Map<String, List<T>> logged = new HashMap<>();
+		if (Files.exists(elementsLog))
+			try (Stream<Json.Record<T>> records = Json.readLines(elementsLog, elementType)) {
+				records.forEachOrdered(record -> {
+					logged.computeIfAbsent(record.url, url -> new ArrayList<>()).add(record.element);
+					started.putIfAbsent(record.url, record.scraped);
+					if (record.count > 0)
+						resume.put(record.url, record.count);
+				});
+			}
+		if (Files.exists(pagesLog))
+			try (Stream<Json.Record<JsonElement>> records = Json.readLines(pagesLog, JsonElement.class)) {
+				records.forEachOrdered(record -> {
+					PagedResult.Builder<T, P> builder = builders.get();
+					builder.setCount(record.count)
+						.setUrl(record.url)
+						.setTime(record.scraped)
+						.setTruncated(record.element.isJsonObject() && record.element.getAsJsonObject().get("truncated").getAsBoolean())
+						.setElements(logged.getOrDefault(record.url, new ArrayList<>()));
+					finished.put(record.url, builder.build());
+				});
+			}
+		logged.forEach((url, elements) -> {
+			saved.put(url, elements.size());
+			if (!finished.containsKey(url))
+				partial.put(url, elements);
+		});
+	}
+
+	public boolean isDone(String url) {
+		return finished.containsKey(url) || completed.contains(url);
+	}
+
+	/* Pages restored from the logs, null for the ones completed since (so that a whole crawl
+	 * doesn't pile up in memory)
+	 */
+	public @Nullable P getPage(String url) {
+		return finished.get(url);
+	}
+
+	/* Elements saved for a page that didn't complete yet, in scraping order */
+	public List<T> getPartial(String url) {
+		return new ArrayList<>(partial.getOrDefault(url, new ArrayList<>()));
+	}
+
+	/* Where to resume a page that didn't complete yet: after the position of the last saved
+	 * element, or after the saved elements themselves when they have no positions.
+	 */
+	public int getResumePosition(String url) {
+		return resume.getOrDefault(url, partial.getOrDefault(url, List.of()).size());
+	}
+
+	public Checkpoint<T, P> save(String url, T element) throws IOException {
+		return save(url, element, -1);
+	}
+
+	public Checkpoint<T, P> save(String url, T element, int position) throws IOException {
+		LocalDateTime time = started.computeIfAbsent(url, key -> LocalDateTime.now());
+		elements.append(position+1, url, time, element);
+		saved.merge(url, 1, Integer::sum);
+		if (position >= 0)
+			resume.put(url, position+1);
+		return this;
+	}
+
+	/* Pages have to be built from the partial elements followed by the new ones, 
+	 * any element that wasn't saved individually gets logged before marking it done.
+	 */
+	public Checkpoint<T, P> complete(P page) throws IOException {
+		String url = page.getUrl();
+		for (int i = saved.getOrDefault(url, 0); i < page.size(); i++)
+			save(url, page.get(i));
+		JsonObject truncated = new JsonObject();
+		truncated.addProperty("url", url);
+		truncated.addProperty("truncated", true);
+		pages.append(page.getCount(), url, page.getScraped(), page.isTruncated() ? truncated : url);
+		partial.remove(url);
+		completed.add(url);
+		return this;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			elements.close();
+		} finally {
+			pages.close();
+		}
+	}
+}
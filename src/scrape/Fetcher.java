@@ -0,0 +1,199 @@
+package scrape;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nullable;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.openqa.selenium.By;
+
+/* Browserless counterpart of Browser for pages whose content is already in the
+ * server-rendered html: a plain HTTP request (HTTP/2 when the server supports it,
+ * connections kept alive and shared by every call) parsed with jsoup. No scripts
+ * run, so anything rendered client side is missing and needs a Browser instead.
+ * e.g. new Fetcher().visit(url).getAll(By.cssSelector("h2.title"))
+ */
+public class Fetcher implements Closeable {
+	public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(Browser.DEFAULT_TIMEOUT);
+	private static final String USER_AGENT = "Mozilla/5.0 (X11; Linux x86_64; rv:91.0) Gecko/20100101 Firefox/91.0";
+	private static final Pattern CHARSET = Pattern.compile("charset=\"?([^\";]+)", Pattern.CASE_INSENSITIVE);
+	// Selenium locators as printed by By::toString, e.g. "By.cssSelector: div.item"
+	private static final Pattern LOCATOR = Pattern.compile("By\\.(\\w+): (.*)", Pattern.DOTALL);
+	private static volatile Fetcher INSTANCE;	// lazy-loaded through Fetcher::getInstance
+
+	private final HttpClient client;
+	private final Duration timeout;
+	private BrowserMetrics metrics = BrowserMetrics.global();
+
+	public Fetcher() {
+		this(DEFAULT_TIMEOUT);
+	}
+
+	public Fetcher(Duration timeout) {
+		this.timeout = timeout;
+		client = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_2)	// falls back to HTTP/1.1 on its own
+			.followRedirects(HttpClient.Redirect.NORMAL)
+			.connectTimeout(timeout)
+			.cookieHandler(new CookieManager())	// keeps session cookies between pages like a browser
+			.build();
+	}
+
+	/* Requests */
+
+	public Page visit(String url) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		try {
+			HttpResponse<byte[]> response = client.send(request(url), HttpResponse.BodyHandlers.ofByteArray());
+			return parse(response);
+		} finally {
+			metrics.record("fetch", BrowserMetrics.NO_SELECTOR, System.nanoTime() - start);
+		}
+	}
+
+	/* Doesn't hold any thread while waiting, so thousands of pages can be in flight */
+	public CompletableFuture<Page> visitAsync(String url) {
+		long start = System.nanoTime();
+		return client.sendAsync(request(url), HttpResponse.BodyHandlers.ofByteArray())
+			.thenApply(response -> {
+				try {
+					return parse(response);
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				} finally {
+					metrics.record("fetch", BrowserMetrics.NO_SELECTOR, System.nanoTime() - start);
+				}
+			});
+	}
+
+	private HttpRequest request(String url) {
+		return HttpRequest.newBuilder(URI.create(url))
+			.timeout(timeout)
+			.header("User-Agent", USER_AGENT)
+			.header("Accept", "text/html,application/xhtml+xml;q=0.9,*/*;q=0.8")
+			.header("Accept-Encoding", "gzip")
+			.GET()
+			.build();
+	}
+
+	private Page parse(HttpResponse<byte[]> response) throws IOException {
+		String url = response.uri().toString();
+		if (response.statusCode() >= 400)
+			throw new IOException("HTTP " + response.statusCode() + " for " + url);
+		boolean gzip = response.headers().firstValue("Content-Encoding").orElse("").equalsIgnoreCase("gzip");
+		// Without a charset in the headers jsoup reads it from the meta tags (or defaults to utf-8)
+		Matcher charset = CHARSET.matcher(response.headers().firstValue("Content-Type").orElse(""));
+		String encoding = charset.find() ? charset.group(1) : null;
+		Document document = metrics.time("parse", BrowserMetrics.NO_SELECTOR, () -> {
+			try (InputStream body = gzip ? 
+					new GZIPInputStream(new ByteArrayInputStream(response.body())) : 
+					new ByteArrayInputStream(response.body())) {
+				return Jsoup.parse(body, encoding, url);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		return new Page(url, response.statusCode(), document);
+	}
+
+	/* Parsed page, with the same lookups as Browser (but over jsoup elements) */
+	public class Page {
+		private final String url;
+		private final int status;
+		private final Document document;
+
+		private Page(String url, int status, Document document) {
+			this.url = url;
+			this.status = status;
+			this.document = document;
+		}
+
+		public @Nullable Element get(By by) {
+			return metrics.time("get", by, () -> document.selectFirst(css(by)));
+		}
+
+		public List<Element> getAll(By by) {
+			return metrics.time("getAll", by, () -> document.select(css(by)));
+		}
+
+		public @Nullable Element find(Element root, By by) {
+			return metrics.time("find", by, () -> root.selectFirst(css(by)));
+		}
+
+		public List<Element> findAll(Element root, By by) {
+			return metrics.time("findAll", by, () -> root.select(css(by)));
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+
+		public String getTitle() {
+			return document.title();
+		}
+
+		public Document getDocument() {
+			return document;
+		}
+	}
+
+	/* Css equivalent of the locator, only css-like locators have one (e.g. not xpath) */
+	static String css(By by) {
+		Matcher locator = LOCATOR.matcher(by.toString());
+		if (locator.matches()) {
+			String value = locator.group(2);
+			switch (locator.group(1)) {
+				case "cssSelector": return value;
+				case "tagName": return value;
+				case "id": return "[id=\"" + value.replace("\"", "\\\"") + "\"]";
+				case "name": return "[name=\"" + value.replace("\"", "\\\"") + "\"]";
+				case "className": return "." + value;
+			}
+		}
+		throw new IllegalArgumentException("Locator needs a browser: " + by);
+	}
+
+	public void setMetrics(BrowserMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public BrowserMetrics getMetrics() {
+		return metrics;
+	}
+
+	public static Fetcher getInstance() {
+		if (INSTANCE == null)
+			synchronized (Fetcher.class) {
+				if (INSTANCE == null)
+					INSTANCE = new Fetcher();
+			}
+		return INSTANCE;
+	}
+
+	@Override
+	public void close() {
+		client.close();
+	}
+}
@@ -0,0 +1,124 @@
+package scrape;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+
+import javax.annotation.Nullable;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+/* Remembers a fingerprint of every scraped page (a hash of whatever cheaply tells if it
+ * changed, e.g. its comments container) along with the page itself, one file per url.
+ * Later runs probe the page first and reuse the stored result while the fingerprint
+ * stays the same, instead of extracting everything again. Files start with a header
+ * line {"url", "fingerprint", "scraped"} so that probing doesn't parse the page.
+ */
+public class FingerprintStore<P extends PagedResult<?>> {
+	public static final Path DEFAULT_DIRECTORY = Paths.get("data", "fingerprints");
+
+	private final Path directory;
+	private final Class<P> pageType;
+
+	public FingerprintStore(Class<P> pageType) {
+		this(DEFAULT_DIRECTORY, pageType);
+	}
+
+	public FingerprintStore(Path directory, Class<P> pageType) {
+		this.directory = directory;
+		this.pageType = pageType;
+	}
+
+	/* Hex SHA-256 of the content */
+	public static String hash(String content) {
+		return HexFormat.of().formatHex(digest().digest(content.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/* The stored page if it was scraped with the same fingerprint, null otherwise */
+	public @Nullable P get(String url, String fingerprint) throws IOException {
+		Path file = file(url);
+		if (!Files.exists(file))
+			return null;
+		try (BufferedReader reader = Files.newBufferedReader(file)) {
+			JsonObject header = header(reader, url);
+			if (header == null || !fingerprint.equals(header.get("fingerprint").getAsString()))
+				return null;
+			return Json.to(reader, pageType);
+		} catch (JsonParseException e) {	// corrupted, scraped again
+			return null;
+		}
+	}
+
+	/* When the stored page was scraped, null without one */
+	public @Nullable LocalDateTime getScraped(String url) throws IOException {
+		Path file = file(url);
+		if (!Files.exists(file))
+			return null;
+		try (BufferedReader reader = Files.newBufferedReader(file)) {
+			JsonObject header = header(reader, url);
+			return header == null || !header.has("scraped") ? null : LocalDateTime.parse(header.get("scraped").getAsString());
+		} catch (JsonParseException e) {
+			return null;
+		}
+	}
+
+	public void put(String url, String fingerprint, P page) throws IOException {
+		JsonObject header = new JsonObject();
+		header.addProperty("url", url);
+		header.addProperty("fingerprint", fingerprint);
+		header.addProperty("scraped", page.getScraped() == null ? null : page.getScraped().toString());
+		write(file(url), header.toString() + "\n" + Json.of(page));
+	}
+
+	public boolean delete(String url) throws IOException {
+		return Files.deleteIfExists(file(url));
+	}
+
+	// Null unless it's the header of that url (i.e. not a hash collision)
+	private static @Nullable JsonObject header(BufferedReader reader, String url) throws IOException {
+		String line = reader.readLine();
+		JsonObject header = line == null ? null : Json.to(line, JsonObject.class);
+		return header == null || !url.equals(header.get("url").getAsString()) ? null : header;
+	}
+
+	private Path file(String url) {
+		return directory.resolve(hash(url) + ".json");
+	}
+
+	// Written next to the target then moved over it, so a crash never leaves half a page
+	private void write(Path file, String content) throws IOException {
+		Files.createDirectories(directory);
+		Path temporary = Files.createTempFile(directory, "fingerprint", ".tmp");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(temporary)) {
+				writer.write(content);
+			}
+			try {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	private static MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -1,9 +1,35 @@
 package scrape;
 
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -14,25 +40,85 @@ import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 public class Json {
-	private static final Gson GSON = new GsonBuilder()
+	private static final int BUFFER_SIZE = 64*1024;
+	private static final GsonBuilder BUILDER = new GsonBuilder()
 		// Date parsing
 		.registerTypeAdapter(LocalDateTime.class, new LocalDateTimeSerializer())
-		.registerTypeAdapter(LocalDateTime.class, new LocalDateTimeDeserializer())
-		.create();
+		.registerTypeAdapter(LocalDateTime.class, new LocalDateTimeDeserializer());
+	private static volatile Gson GSON = BUILDER.create();	// rebuilt on every registration
+	
+	/* Type adapters registration (e.g. from the static initializers of scraped types) */
+	
+	public static synchronized void registerTypeAdapter(Type type, TypeAdapter<?> adapter) {
+		BUILDER.registerTypeAdapter(type, adapter.nullSafe());
+		GSON = BUILDER.create();
+	}
+	
+	public static synchronized void registerTypeAdapterFactory(TypeAdapterFactory factory) {
+		BUILDER.registerTypeAdapterFactory(factory);
+		GSON = BUILDER.create();
+	}
+	
+	/* Makes pages of the given type (de)serialize as objects that keep their metadata, 
+	 * with elements read/written by whatever adapter is registered for the element type.
+	 */
+	public static <T, P extends PagedResult<T>> void registerPagedResult(
+			Class<P> pageType, 
+			Class<T> elementType, 
+			Supplier<? extends PagedResult.Builder<T, P>> builders) {
+		initialize(elementType);	// so its own adapter is registered first
+		registerTypeAdapterFactory(new TypeAdapterFactory() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public <A> TypeAdapter<A> create(Gson gson, TypeToken<A> type) {
+				if (type.getRawType() != pageType)
+					return null;
+				return (TypeAdapter<A>) new PagedResult.Adapter<>(builders, gson.getAdapter(elementType)).nullSafe();
+			}
+		});
+	}
+	
+	/* Scraped types register their adapters when they're initialized, which doesn't
+	 * happen by merely referencing their class literal (e.g. CommentsPage.class), so
+	 * the instance has to be fetched only after initializing the type to parse.
+	 */
+	private static Gson gson(Type type) {
+		initialize(type);
+		return GSON;
+	}
+	
+	private static void initialize(Type type) {
+		if (type instanceof Class) {
+			Class<?> cls = (Class<?>) type;
+			if (!cls.isPrimitive() && !cls.isArray())
+				try {
+					Class.forName(cls.getName(), true, cls.getClassLoader());
+				} catch (ClassNotFoundException | LinkageError e) {}	// nothing to register then
+		} else if (type instanceof ParameterizedType) {
+			initialize(((ParameterizedType) type).getRawType());
+			for (Type argument : ((ParameterizedType) type).getActualTypeArguments())
+				initialize(argument);
+		}
+	}
 	
 	public static String of(Object object) {
 		return GSON.toJson(object);
 	}
 	
 	public static <T> T to(String json, Class<T> cls) {
-		return GSON.fromJson(json, cls);
+		return gson(cls).fromJson(json, cls);
 	}
 	
 	public static <T> T toType(String json, Type type) {
-		return GSON.fromJson(json, type);
+		return gson(type).fromJson(json, type);
 	}
 	
 	public static <T> List<T> toList(String json) {
@@ -50,6 +136,379 @@ public class Json {
 		return GSON.fromJson(json, type);
 	}
 	
+	public static <P extends PagedResult<?>> P toPagedResult(String json, Class<P> pageType) {
+		return gson(pageType).fromJson(json, pageType);
+	}
+	
+	public static <P extends PagedResult<?>> List<P> toPagedResultList(String json, Class<P> pageType) {
+		Type type = pageListType(pageType);
+		return gson(type).fromJson(json, type);
+	}
+	
+	public static <P extends PagedResult<?>> List<P> toPagedResultList(Reader reader, Class<P> pageType) {
+		Type type = pageListType(pageType);
+		return gson(type).fromJson(reader, type);
+	}
+	
+	private static Type pageListType(Type pageType) {
+		return TypeToken.getParameterized(List.class, pageType).getType();
+	}
+	
+	/* Already parsed trees, e.g. records returned by an extraction script */
+	public static <T> T to(JsonElement json, Class<T> cls) {
+		return gson(cls).fromJson(json, cls);
+	}
+	
+	/* Reader based parsing, avoids loading the whole file as a String */
+	
+	public static <T> T to(Reader reader, Class<T> cls) {
+		return gson(cls).fromJson(reader, cls);
+	}
+	
+	public static <T> T toType(Reader reader, Type type) {
+		return gson(type).fromJson(reader, type);
+	}
+	
+	public static <T> List<T> toList(Reader reader) {
+		Type type = new TypeToken<Collection<T>>(){}.getType();
+		return GSON.fromJson(reader, type);
+	}
+	
+	/* Streaming deserialization */
+	
+	public static <P> PageReader<P> newPageReader(Path path, Type pageType) throws IOException {
+		initialize(pageType);
+		return new PageReader<>(Files.newBufferedReader(path, StandardCharsets.UTF_8), pageType);
+	}
+	
+	/* Lazily parses one page at a time out of a file written by PageWriter/Json.of, 
+	 * the stream has to be closed to release the file. 
+	 */
+	public static <P> Stream<P> streamPages(Path path, Type pageType) throws IOException {
+		PageReader<P> reader = newPageReader(path, pageType);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(reader, Spliterator.ORDERED | Spliterator.NONNULL), false)
+			.onClose(() -> {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+	}
+	
+	/* Iterates over the top-level array of pages, only ever holding a single page in memory */
+	public static class PageReader<P> implements Iterator<P>, Closeable {
+		private final JsonReader reader;
+		private final Type pageType;
+		private boolean started, ended;
+		
+		public PageReader(Reader in, Type pageType) {
+			this.reader = GSON.newJsonReader(in);
+			this.pageType = pageType;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			try {
+				if (!started) {
+					reader.beginArray();
+					started = true;
+				}
+				if (ended)
+					return false;
+				if (reader.peek() == JsonToken.END_ARRAY) {
+					reader.endArray();
+					ended = true;
+					return false;
+				}
+				return true;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		@Override
+		public P next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return GSON.fromJson(reader, pageType);
+		}
+		
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+	
+	/* Streaming serialization */
+	
+	public static PageWriter newPageWriter(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, 
+				StandardOpenOption.CREATE, 
+				StandardOpenOption.TRUNCATE_EXISTING, 
+				StandardOpenOption.WRITE);
+		Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE);
+		return new PageWriter(new BufferedWriter(writer, BUFFER_SIZE));
+	}
+	
+	/* Writes pages (and their elements) one at a time as they're produced, in the same
+	 * format as Json.of(List<PagedResult>) (see PagedResult.Adapter), so the whole result 
+	 * set never has to be held as a single String. Can either be fed whole pages or 
+	 * element by element.
+	 */
+	public static class PageWriter implements Closeable, Flushable {
+		private final JsonWriter writer;
+		private boolean inPage;
+		
+		public PageWriter(Writer out) throws IOException {
+			writer = GSON.newJsonWriter(out);
+			writer.beginArray();
+		}
+		
+		public PageWriter beginPage(int count, String url, LocalDateTime scraped) throws IOException {
+			return beginPage(count, url, scraped, false);
+		}
+		
+		public PageWriter beginPage(int count, String url, LocalDateTime scraped, boolean truncated) throws IOException {
+			if (inPage)
+				endPage();
+			PagedResult.Adapter.beginPage(writer, count, url, scraped, truncated);
+			inPage = true;
+			return this;
+		}
+		
+		public PageWriter writeElement(Object element) throws IOException {
+			if (!inPage)
+				throw new IllegalStateException("Elements can only be written inside a page");
+			GSON.toJson(element, element.getClass(), writer);
+			return this;
+		}
+		
+		public PageWriter endPage() throws IOException {
+			if (!inPage)
+				throw new IllegalStateException("No page to end");
+			PagedResult.Adapter.endPage(writer);
+			inPage = false;
+			return this;
+		}
+		
+		public <T> PageWriter writePage(PagedResult<T> page) throws IOException {
+			beginPage(page.getCount(), page.getUrl(), page.getScraped(), page.isTruncated());
+			for (T element : page)
+				writeElement(element);
+			return endPage();
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			writer.flush();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			try {
+				if (inPage)
+					endPage();
+				writer.endArray();
+			} finally {
+				writer.close();
+			}
+		}
+	}
+	
+	/* Newline-delimited JSON (NDJSON) append-only log */
+	
+	public static LineWriter newLineWriter(Path path) throws IOException {
+		return newLineWriter(path, LineWriter.DEFAULT_BATCH);
+	}
+	
+	/* A truncated last line (e.g. from a crash) is cut off first, so that appending doesn't
+	 * glue the next line to it and turn it into a corrupt line in the middle of the log.
+	 */
+	public static LineWriter newLineWriter(Path path, int batch) throws IOException {
+		if (Files.exists(path))
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				channel.truncate(lastNewline(channel) + 1);
+			}
+		FileChannel channel = FileChannel.open(path, 
+				StandardOpenOption.CREATE, 
+				StandardOpenOption.APPEND);
+		Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE);
+		return new LineWriter(new BufferedWriter(writer, BUFFER_SIZE), batch);
+	}
+	
+	/* Appends one {"count", "url", "scraped", "element"} line per scraped element, so that
+	 * a crash only loses the last unflushed batch and runs can resume appending to the 
+	 * same file. Thread-safe so concurrent scrapers can share one log.
+	 */
+	public static class LineWriter implements Closeable, Flushable {
+		public static final int DEFAULT_BATCH = 100;	// lines per flush
+		private final Writer out;
+		private final JsonWriter writer;
+		private final int batch;
+		private int pending;
+		
+		public LineWriter(Writer out, int batch) throws IOException {
+			this.out = out;
+			this.batch = Math.max(1, batch);
+			writer = GSON.newJsonWriter(out);
+			writer.setLenient(true);	// allows one top-level value per line
+		}
+		
+		public synchronized LineWriter append(int count, String url, LocalDateTime scraped, Object element) throws IOException {
+			writer.beginObject()
+				.name("count").value(count)
+				.name("url").value(url)
+				.name("scraped").value(scraped == null ? null : scraped.toString())
+				.name("element");
+			GSON.toJson(element, element.getClass(), writer);
+			writer.endObject();
+			out.write('\n');
+			if (++pending >= batch)
+				flush();
+			return this;
+		}
+		
+		public <T> LineWriter appendPage(PagedResult<T> page) throws IOException {
+			for (T element : page)
+				append(page.getCount(), page.getUrl(), page.getScraped(), element);
+			return this;
+		}
+		
+		@Override
+		public synchronized void flush() throws IOException {
+			writer.flush();
+			pending = 0;
+		}
+		
+		@Override
+		public synchronized void close() throws IOException {
+			writer.flush();
+			out.close();	// JsonWriter refuses to close an empty document
+		}
+	}
+	
+	/* A single line of the log */
+	public static class Record<T> {
+		public final int count;
+		public final String url;
+		public final LocalDateTime scraped;
+		public final T element;
+		
+		public Record(int count, String url, LocalDateTime scraped, T element) {
+			this.count = count;
+			this.url = url;
+			this.scraped = scraped;
+			this.element = element;
+		}
+	}
+	
+	/* Reads the log back in parallel: Files.lines splits memory-mapped UTF-8 files on line 
+	 * boundaries, so every worker of the parallel stream parses its own chunk of lines. 
+	 * Blank lines and a truncated last line (e.g. from a crash) are skipped, any other line
+	 * that can't be parsed fails the stream with its line number. The stream keeps the file
+	 * order and has to be closed.
+	 */
+	public static <T> Stream<Record<T>> readLines(Path path, Class<T> elementType) throws IOException {
+		Gson gson = gson(elementType);
+		TypeAdapter<T> adapter = gson.getAdapter(elementType);
+		String partial = partialLine(path);	// whatever follows the last newline
+		return Files.lines(path, StandardCharsets.UTF_8)
+			.parallel()
+			.filter(line -> !line.isBlank())
+			.map(line -> {
+				try {
+					return parseLine(gson, adapter, line);
+				} catch (IOException | RuntimeException e) {
+					if (line.equals(partial))
+						return null;	// partially written line
+					throw new UncheckedIOException(new IOException(path+":"+lineNumber(path, line)+": corrupt line", e));
+				}
+			})
+			.filter(record -> record != null);
+	}
+	
+	private static <T> Record<T> parseLine(Gson gson, TypeAdapter<T> adapter, String line) throws IOException {
+		try (JsonReader reader = gson.newJsonReader(new StringReader(line))) {
+			int count = 0;
+			String url = null;
+			LocalDateTime scraped = null;
+			T element = null;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (reader.peek() == JsonToken.NULL) {
+					reader.nextNull();
+					continue;
+				}
+				switch (name) {
+					case "count": count = reader.nextInt(); break;
+					case "url": url = reader.nextString(); break;
+					case "scraped": scraped = LocalDateTime.parse(reader.nextString()); break;
+					case "element": element = adapter.read(reader); break;
+					default: reader.skipValue();
+				}
+			}
+			reader.endObject();
+			return new Record<>(count, url, scraped, element);
+		}
+	}
+	
+	// Position of the last '\n' of the file (-1 if there's none), read backwards by chunks
+	private static long lastNewline(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		for (long end = channel.size(); end > 0; end -= buffer.limit()) {
+			buffer.clear().limit((int) Math.min(BUFFER_SIZE, end));
+			long start = end - buffer.limit();
+			while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) >= 0);
+			for (int i = buffer.limit() - 1; i >= 0; i--)
+				if (buffer.get(i) == '\n')
+					return start + i;
+		}
+		return -1;
+	}
+	
+	private static String partialLine(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long start = lastNewline(channel) + 1;
+			ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() - start));
+			while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) >= 0);
+			return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+		}
+	}
+	
+	// Only used to report a corrupt line, so rescanning the file is fine
+	private static int lineNumber(Path path, String line) {
+		int number = 0;
+		try (Stream<String> lines = Files.lines(path, StandardCharsets.UTF_8)) {
+			for (Iterator<String> iterator = lines.iterator(); iterator.hasNext();) {
+				number++;
+				if (iterator.next().equals(line))
+					return number;
+			}
+		} catch (IOException | UncheckedIOException e) {}	// the caller reports the line anyway
+		return -1;
+	}
+	
+	/* Groups log records back into pages, in order of first appearance */
+	public static <T, P extends PagedResult<T>> List<P> toPages(
+			Stream<Record<T>> records, 
+			Supplier<? extends PagedResult.Builder<T, P>> builders) {
+		Map<String, PagedResult.Builder<T, P>> pages = new LinkedHashMap<>();
+		records.forEachOrdered(record -> pages.computeIfAbsent(record.url + "@" + record.scraped, key -> {
+				PagedResult.Builder<T, P> builder = builders.get();
+				builder.setCount(record.count)
+					.setUrl(record.url)
+					.setTime(record.scraped);
+				return builder;
+			})
+			.addElement(record.element));
+		List<P> results = new ArrayList<>();
+		for (PagedResult.Builder<T, P> builder : pages.values())
+			results.add(builder.build());
+		return results;
+	}
+	
 	/* Custom local date time serialization */
 	
 	public static class LocalDateTimeSerializer implements JsonSerializer<LocalDateTime> {
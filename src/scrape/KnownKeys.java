@@ -0,0 +1,74 @@
+package scrape;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.google.gson.JsonParseException;
+
+/* Keys of the elements already scraped from every url (e.g. Comment::getKey), kept
+ * between runs so that scrapers can tell new elements from known ones. One append-only
+ * file per url: the url on the first line then one JSON string per line and key.
+ */
+public class KnownKeys {
+	public static final Path DEFAULT_DIRECTORY = Paths.get("data", "known");
+
+	private final Path directory;
+
+	public KnownKeys() {
+		this(DEFAULT_DIRECTORY);
+	}
+
+	public KnownKeys(Path directory) {
+		this.directory = directory;
+	}
+
+	/* Keys known for the url, empty on its first run */
+	public Set<String> load(String url) throws IOException {
+		Set<String> keys = new HashSet<>();
+		Path file = file(url);
+		if (!Files.exists(file))
+			return keys;
+		try (BufferedReader reader = Files.newBufferedReader(file)) {
+			if (!url.equals(reader.readLine()))
+				return keys;	// hash collision
+			for (String line = reader.readLine(); line != null; line = reader.readLine())
+				try {
+					keys.add(Json.to(line, String.class));
+				} catch (JsonParseException e) {}	// partially written line (e.g. from a crash)
+		}
+		keys.remove(null);	// blank lines
+		return keys;
+	}
+
+	public void add(String url, Collection<String> keys) throws IOException {
+		if (keys.isEmpty())
+			return;
+		Files.createDirectories(directory);
+		Path file = file(url);
+		boolean created = !Files.exists(file);
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+			if (created)
+				writer.write(url + "\n");
+			for (String key : keys)
+				writer.write(Json.of(key) + "\n");
+		}
+	}
+
+	public boolean delete(String url) throws IOException {
+		return Files.deleteIfExists(file(url));
+	}
+
+	private Path file(String url) {
+		return directory.resolve(FingerprintStore.hash(url) + ".keys");
+	}
+}
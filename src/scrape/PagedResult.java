@@ -1,16 +1,25 @@
 package scrape;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Supplier;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 public abstract class PagedResult<T> extends ArrayList<T> {
 	private static final long serialVersionUID = 3403186784231334418L;
+	public static final String UNKNOWN_URL = "unknown";	// for pages saved without metadata
 	
 	private int count;
 	private String url;
 	private LocalDateTime scraped;
+	private boolean truncated;	// stopped early (e.g. by scraping limits), so elements are missing
 	
 	protected PagedResult(int count, String url, LocalDateTime scraped, List<T> elements) {
 		super(elements);
@@ -30,6 +39,10 @@ public abstract class PagedResult<T> extends ArrayList<T> {
 	public LocalDateTime getScraped() {
 		return scraped;
 	}
+	
+	public boolean isTruncated() {
+		return truncated;
+	}
 
 	public List<T> getElements() {
 		return this;
@@ -37,8 +50,10 @@ public abstract class PagedResult<T> extends ArrayList<T> {
 
 	public abstract static class Builder<Type, Out> {
 		protected static int count = 0;	// to number page instances
+		protected Integer restoredCount;	// number of a page that is being deserialized
 		protected String url;
 		protected LocalDateTime scraped;
+		protected boolean truncated;
 		protected List<Type> elements;
 		
 		protected Builder() {
@@ -55,6 +70,20 @@ public abstract class PagedResult<T> extends ArrayList<T> {
 			return this;
 		}
 		
+		public Builder<Type, Out> setTruncated(boolean truncated) {
+			this.truncated = truncated;
+			return this;
+		}
+		
+		public Builder<Type, Out> setCount(int count) {
+			this.restoredCount = count;
+			return this;
+		}
+		
+		protected int getCount() {
+			return restoredCount == null ? count : restoredCount;
+		}
+		
 		public Builder<Type, Out> setElements(Collection<Type> elements) {
 			this.elements = new ArrayList<>(elements);
 			return this;
@@ -73,13 +102,100 @@ public abstract class PagedResult<T> extends ArrayList<T> {
 		protected abstract Out buildInstance();
 		
 		public Out build() {
-			count++;
 			scraped = scraped == null ? LocalDateTime.now() : scraped;
-			try { return buildInstance(); }
-			catch (Exception e) { 
-				count--;
-				throw e;
+			if (restoredCount != null)
+				return truncate(buildInstance());
+			synchronized (Builder.class) {	// page numbering is shared across scraping threads
+				count++;
+				try { return truncate(buildInstance()); }
+				catch (Exception e) { 
+					count--;
+					throw e;
+				}
+			}
+		}
+		
+		// Set here so that subclasses don't have to pass it along
+		private Out truncate(Out page) {
+			if (truncated && page instanceof PagedResult)
+				((PagedResult<?>) page).truncated = true;
+			return page;
+		}
+	}
+
+	/* Serializes pages as {"count", "url", "scraped", "elements": [...]} (plus "truncated" 
+	 * when set) and rebuilds them 
+	 * through their builders. Legacy files that only have the elements array are still 
+	 * readable, but their pages get an unknown url and number.
+	 */
+	public static class Adapter<T, P extends PagedResult<T>> extends TypeAdapter<P> {
+		private final Supplier<? extends Builder<T, P>> builders;
+		private final TypeAdapter<T> elements;
+		
+		public Adapter(Supplier<? extends Builder<T, P>> builders, TypeAdapter<T> elements) {
+			this.builders = builders;
+			this.elements = elements;
+		}
+		
+		@Override
+		public void write(JsonWriter out, P page) throws IOException {
+			beginPage(out, page.getCount(), page.getUrl(), page.getScraped(), page.isTruncated());
+			for (T element : page)
+				elements.write(out, element);
+			endPage(out);
+		}
+		
+		@Override
+		public P read(JsonReader in) throws IOException {
+			Builder<T, P> builder = builders.get();
+			if (in.peek() == JsonToken.BEGIN_ARRAY) {
+				readElements(in, builder);
+				return builder.setCount(0)	// page numbers start at 1
+					.setUrl(UNKNOWN_URL)
+					.build();
+			}
+			in.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				if (in.peek() == JsonToken.NULL) {
+					in.nextNull();
+					continue;
+				}
+				switch (name) {
+					case "count": builder.setCount(in.nextInt()); break;
+					case "url": builder.setUrl(in.nextString()); break;
+					case "scraped": builder.setTime(LocalDateTime.parse(in.nextString())); break;
+					case "truncated": builder.setTruncated(in.nextBoolean()); break;
+					case "elements": readElements(in, builder); break;
+					default: in.skipValue();
+				}
 			}
+			in.endObject();
+			return builder.build();
+		}
+		
+		private void readElements(JsonReader in, Builder<T, P> builder) throws IOException {
+			in.beginArray();
+			while (in.hasNext())
+				builder.addElement(elements.read(in));
+			in.endArray();
+		}
+		
+		/* Shared with Json.PageWriter which streams elements in between */
+		
+		static void beginPage(JsonWriter out, int count, String url, LocalDateTime scraped, boolean truncated) throws IOException {
+			out.beginObject()
+				.name("count").value(count)
+				.name("url").value(url)
+				.name("scraped").value(scraped == null ? null : scraped.toString());
+			if (truncated)
+				out.name("truncated").value(true);
+			out.name("elements").beginArray();
+		}
+		
+		static void endPage(JsonWriter out) throws IOException {
+			out.endArray()
+				.endObject();
 		}
 	}
 }
@@ -0,0 +1,112 @@
+package scrape;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.openqa.selenium.PageLoadStrategy;
+import org.openqa.selenium.firefox.FirefoxOptions;
+
+/* Controls what a browser bothers downloading, through firefox profile prefs.
+ * Scrapers only read the DOM, so images, fonts, media and ad/tracking scripts
+ * are pure overhead. Blocked domains are routed through a PAC script to a dead
+ * local proxy (so their requests fail instantly), and the eager page load
+ * strategy returns from navigation once the DOM is ready instead of waiting
+ * on every sub-resource.
+ * Prefs docs: http://kb.mozillazine.org/About:config_entries
+ */
+public class ResourcePolicy {
+	private static final String BLACKHOLE_PROXY = "PROXY 127.0.0.1:9";	// discard port
+
+	private boolean images, fonts, media, trackers;
+	private PageLoadStrategy strategy = PageLoadStrategy.NORMAL;
+	private Set<String> blockedDomains = new LinkedHashSet<>();
+
+	/* Firefox defaults */
+	public static ResourcePolicy none() {
+		return new ResourcePolicy();
+	}
+
+	/* Everything a scraper doesn't read is blocked */
+	public static ResourcePolicy lean() {
+		return new ResourcePolicy()
+			.blockImages(true)
+			.blockFonts(true)
+			.blockMedia(true)
+			.blockTrackers(true)
+			.setPageLoadStrategy(PageLoadStrategy.EAGER);
+	}
+
+	public ResourcePolicy blockImages(boolean block) {
+		images = block;
+		return this;
+	}
+
+	public ResourcePolicy blockFonts(boolean block) {
+		fonts = block;
+		return this;
+	}
+
+	public ResourcePolicy blockMedia(boolean block) {
+		media = block;
+		return this;
+	}
+
+	/* Firefox's own tracking protection list covers most ad/analytics scripts */
+	public ResourcePolicy blockTrackers(boolean block) {
+		trackers = block;
+		return this;
+	}
+
+	/* Blocks the given hosts and their subdomains, e.g. "doubleclick.net" */
+	public ResourcePolicy blockDomains(String...domains) {
+		blockedDomains.addAll(Arrays.asList(domains));
+		return this;
+	}
+
+	public ResourcePolicy setPageLoadStrategy(PageLoadStrategy strategy) {
+		this.strategy = strategy;
+		return this;
+	}
+
+	public FirefoxOptions apply(FirefoxOptions options) {
+		options.setPageLoadStrategy(strategy);
+		if (images)
+			options.addPreference("permissions.default.image", 2);	// 2 = block all
+		if (fonts) {
+			options.addPreference("browser.display.use_document_fonts", 0);
+			options.addPreference("gfx.downloadable_fonts.enabled", false);
+		}
+		if (media) {
+			options.addPreference("media.autoplay.default", 5);		// 5 = block audio and video
+			options.addPreference("media.autoplay.blocking_policy", 2);
+			options.addPreference("media.preload.default", 0);
+			options.addPreference("media.preload.auto", 0);
+			options.addPreference("media.mediasource.enabled", false);
+		}
+		if (trackers) {
+			options.addPreference("privacy.trackingprotection.enabled", true);
+			options.addPreference("privacy.trackingprotection.socialtracking.enabled", true);
+		}
+		if (!blockedDomains.isEmpty()) {
+			options.addPreference("network.proxy.type", 2);		// 2 = PAC
+			options.addPreference("network.proxy.autoconfig_url", pacUrl());
+			options.addPreference("network.proxy.allow_hijacking_localhost", true);	// or local hosts can't be blocked
+		}
+		return options;
+	}
+
+	private String pacUrl() {
+		String conditions = blockedDomains.stream()
+			.map(domain -> String.format("host == '%1$s' || dnsDomainIs(host, '.%1$s')", domain))
+			.collect(Collectors.joining(" || "));
+		return "data:text/javascript,"+String.format(
+			"function FindProxyForURL(url, host) { return (%s) ? '%s' : 'DIRECT'; }",
+			conditions,
+			BLACKHOLE_PROXY)
+			.replace(" ", "%20")
+			.replace("'", "%27")
+			.replace("|", "%7C");
+	}
+}
@@ -0,0 +1,318 @@
+package scrape;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
+import org.jsoup.nodes.Element;
+import org.openqa.selenium.WebElement;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/* Declarative description of the records to scrape from a page: a css selector
+ * matching every record plus named fields read under each one (text, attribute,
+ * nested lists of records, clicks to expand them beforehand). It's compiled once
+ * into an in-page script which extracts all the records in a single round trip
+ * and returns them as JSON, mapped to the element type through Json (or a custom
+ * mapper). Fields only match inside their own record, never in nested ones.
+ * The same spec also runs over html fetched without a browser (see Fetcher).
+ * e.g. Schema.of("div.card", Listing.class)
+ *          .text("title", "h2")
+ *          .attribute("link", "href", "a.card-link")
+ *          .list("photos", Schema.of("img").attribute("src", "src", ""))
+ */
+public class Schema<T> {
+	/* Runs the spec over every top-level record under the root, scoping each field lookup
+	 * to its closest record (so that nested records, like replies, keep their own fields).
+	 * args: root (or null for the whole document)
+	 */
+	private static final String INTERPRETER = String.join("\n",
+		"var root = arguments[0] || document;",
+		"function scope(spec) {",
+		"  return [spec.records].concat(spec.fields.filter(function(f) { return f.kind == 'list'; })",
+		"    .map(function(f) { return f.items; })).join(', ');",
+		"}",
+		"function owned(record, within, selector) {",
+		"  if (selector == '') return [record];",
+		"  return Array.prototype.filter.call(record.querySelectorAll(selector), function(el) {",
+		"    return el.closest(within) === record;",
+		"  });",
+		"}",
+		"function first(record, within, selectors) {",
+		"  for (var i = 0; i < selectors.length; i++) {",
+		"    var found = owned(record, within, selectors[i]);",
+		"    if (found.length > 0) return found[0];",
+		"  }",
+		"  return null;",
+		"}",
+		"function extract(record, spec) {",
+		"  var within = scope(spec), result = {};",
+		"  spec.expand.forEach(function(selector) {",
+		"    owned(record, within, selector).forEach(function(el) { el.click(); });",
+		"  });",
+		"  spec.fields.forEach(function(field) {",
+		"    if (field.kind == 'list') {",
+		"      var nested = field.schema || Object.assign({}, spec, { records: field.items });",
+		"      result[field.name] = Array.prototype.filter.call(record.querySelectorAll(field.items), function(el) {",
+		"        return el.parentElement.closest(within) === record;",
+		"      }).map(function(el) { return extract(el, nested); });",
+		"    } else {",
+		"      var found = first(record, within, field.selectors);",
+		"      result[field.name] = found == null ? null :",
+		"        field.kind == 'attribute' ? found.getAttribute(field.attribute) : found.textContent.trim();",
+		"    }",
+		"  });",
+		"  return result;",
+		"}",
+		"var records = Array.prototype.filter.call(root.querySelectorAll(spec.records), function(el) {",
+		"  var owner = el.parentElement == null ? null : el.parentElement.closest(spec.records);",
+		"  return (owner == null || !root.contains(owner) || owner === root) && !(spec.mark && el.hasAttribute(spec.mark));",
+		"});",
+		"return JSON.stringify(records.map(function(el) {",
+		"  var result = extract(el, spec);",
+		"  if (spec.mark) {",
+		"    window.__schemaMarks = (window.__schemaMarks || 0) + 1;",
+		"    el.setAttribute(spec.mark, window.__schemaMarks);",
+		"    result[spec.mark] = String(window.__schemaMarks);",
+		"  }",
+		"  return result;",
+		"}));");
+
+	private static final String MARKS = "data-schema-marks";	// counter kept on fetched documents
+	
+	private final String records;
+	private final Function<JsonObject, T> mapper;
+	private final JsonArray fields = new JsonArray(), expand = new JsonArray();
+	private String mark;				// attribute flagging records that were already extracted
+	private volatile String script;		// compiled lazily, reset by any change
+
+	private Schema(String records, Function<JsonObject, T> mapper) {
+		this.records = records;
+		this.mapper = mapper;
+	}
+
+	/* Records left as raw JSON objects */
+	public static Schema<JsonObject> of(String records) {
+		return new Schema<>(records, json -> json);
+	}
+
+	/* Records converted through Json, so registered adapters apply */
+	public static <T> Schema<T> of(String records, Class<T> type) {
+		return new Schema<>(records, json -> Json.to(json, type));
+	}
+
+	public static <T> Schema<T> of(String records, Function<JsonObject, T> mapper) {
+		return new Schema<>(records, mapper);
+	}
+
+	/* Building */
+
+	/* Trimmed text of the first selector that matches (in the given order),
+	 * hidden elements included; an empty selector means the record itself.
+	 */
+	public Schema<T> text(String name, String...selectors) {
+		return field(name, "text", null, selectors);
+	}
+
+	public Schema<T> attribute(String name, String attribute, String...selectors) {
+		return field(name, "attribute", attribute, selectors);
+	}
+
+	/* Nested records, converted along with their parent (i.e. by its mapper) */
+	public Schema<T> list(String name, Schema<?> nested) {
+		JsonObject field = new JsonObject();
+		field.addProperty("name", name);
+		field.addProperty("kind", "list");
+		field.addProperty("items", nested.records);
+		field.add("schema", nested.spec());
+		return add(field);
+	}
+
+	/* Nested records with the same fields as this schema, e.g. replies to comments */
+	public Schema<T> recursive(String name, String items) {
+		JsonObject field = new JsonObject();
+		field.addProperty("name", name);
+		field.addProperty("kind", "list");
+		field.addProperty("items", items);
+		return add(field);
+	}
+
+	/* Clicks every match under each record before reading it (e.g. 'show more' toggles).
+	 * Clicks happen synchronously, for content loaded asynchronously expand it beforehand.
+	 */
+	public Schema<T> expand(String selector) {
+		expand.add(selector);
+		script = null;
+		return this;
+	}
+
+	/* Incremental extraction (e.g. infinite scrolling): records get tagged with the attribute
+	 * (a number unique in the page, also returned under that name) and are skipped afterwards.
+	 * The number can be used to find the record again, i.e. "[attribute='number']".
+	 */
+	public Schema<T> mark(String attribute) {
+		mark = attribute;
+		script = null;
+		return this;
+	}
+	
+	private Schema<T> field(String name, String kind, @Nullable String attribute, String...selectors) {
+		JsonObject field = new JsonObject();
+		field.addProperty("name", name);
+		field.addProperty("kind", kind);
+		if (attribute != null)
+			field.addProperty("attribute", attribute);
+		JsonArray array = new JsonArray();
+		Arrays.stream(selectors).forEach(array::add);
+		field.add("selectors", array);
+		return add(field);
+	}
+
+	private Schema<T> add(JsonObject field) {
+		fields.add(field);
+		script = null;
+		return this;
+	}
+
+	private JsonObject spec() {
+		JsonObject spec = new JsonObject();
+		spec.addProperty("records", records);
+		spec.add("fields", fields.deepCopy());
+		spec.add("expand", expand.deepCopy());
+		spec.addProperty("mark", mark);
+		return spec;
+	}
+
+	public String getRecords() {
+		return records;
+	}
+
+	/* The whole extraction script, with the spec inlined */
+	public String compile() {
+		String compiled = script;
+		if (compiled == null)
+			script = compiled = "var spec = " + spec() + ";\n" + INTERPRETER;
+		return compiled;
+	}
+
+	/* Extraction */
+
+	/* Raw records as returned by the page, in document order */
+	public JsonArray extractJson(Browser browser, @Nullable WebElement root) {
+		String json = browser.evaluate(compile(), root);
+		return Json.to(json, JsonArray.class);
+	}
+
+	public List<T> extract(Browser browser, @Nullable WebElement root) {
+		List<T> elements = new ArrayList<>();
+		for (JsonElement record : extractJson(browser, root))
+			elements.add(mapper.apply(record.getAsJsonObject()));
+		return elements;
+	}
+
+	public <P extends PagedResult<T>> P extractPage(Browser browser, @Nullable WebElement root, PagedResult.Builder<T, P> builder) {
+		return builder.setUrl(browser.getCurrentUrl())
+			.setElements(extract(browser, root))
+			.build();
+	}
+	
+	/* Browserless extraction */
+	
+	/* Same records from a fetched page, read by a Java port of the in-page interpreter.
+	 * Nothing gets expanded (no scripts run) and text is whitespace normalized.
+	 */
+	public JsonArray extractJson(Fetcher.Page page, @Nullable Element root) {
+		JsonArray result = new JsonArray();
+		Element scope = root == null ? page.getDocument() : root;
+		JsonObject spec = spec();
+		for (Element record : scope.select(records)) {
+			Element owner = record.parent() == null ? null : record.parent().closest(records);
+			if (record == scope || !(owner == null || owner == scope || !contains(scope, owner)) || (mark != null && record.hasAttr(mark)))
+				continue;
+			JsonObject json = extract(record, spec);
+			if (mark != null) {
+				Element document = page.getDocument();
+				int marks = document.hasAttr(MARKS) ? Integer.parseInt(document.attr(MARKS)) + 1 : 1;
+				document.attr(MARKS, String.valueOf(marks));
+				record.attr(mark, String.valueOf(marks));
+				json.addProperty(mark, String.valueOf(marks));
+			}
+			result.add(json);
+		}
+		return result;
+	}
+	
+	public List<T> extract(Fetcher.Page page, @Nullable Element root) {
+		List<T> elements = new ArrayList<>();
+		for (JsonElement record : extractJson(page, root))
+			elements.add(mapper.apply(record.getAsJsonObject()));
+		return elements;
+	}
+	
+	public <P extends PagedResult<T>> P extractPage(Fetcher.Page page, @Nullable Element root, PagedResult.Builder<T, P> builder) {
+		return builder.setUrl(page.getUrl())
+			.setElements(extract(page, root))
+			.build();
+	}
+	
+	private static JsonObject extract(Element record, JsonObject spec) {
+		String within = scope(spec);
+		JsonObject result = new JsonObject();
+		for (JsonElement element : spec.getAsJsonArray("fields")) {
+			JsonObject field = element.getAsJsonObject();
+			String name = field.get("name").getAsString();
+			if (field.get("kind").getAsString().equals("list")) {
+				String items = field.get("items").getAsString();
+				JsonObject nested = field.has("schema") ? field.getAsJsonObject("schema") : spec.deepCopy();
+				nested.addProperty("records", items);
+				JsonArray list = new JsonArray();
+				for (Element item : record.select(items))
+					if (item != record && item.parent().closest(within) == record)
+						list.add(extract(item, nested));
+				result.add(name, list);
+			} else {
+				Element found = first(record, within, field.getAsJsonArray("selectors"));
+				if (found == null)
+					result.add(name, null);
+				else if (field.get("kind").getAsString().equals("attribute"))
+					result.addProperty(name, found.hasAttr(field.get("attribute").getAsString()) ? 
+						found.attr(field.get("attribute").getAsString()) : null);
+				else
+					result.addProperty(name, found.text());
+			}
+		}
+		return result;
+	}
+	
+	// Records and nested list items, i.e. what a field lookup must not cross
+	private static String scope(JsonObject spec) {
+		StringBuilder within = new StringBuilder(spec.get("records").getAsString());
+		for (JsonElement field : spec.getAsJsonArray("fields"))
+			if (field.getAsJsonObject().get("kind").getAsString().equals("list"))
+				within.append(", ").append(field.getAsJsonObject().get("items").getAsString());
+		return within.toString();
+	}
+	
+	private static @Nullable Element first(Element record, String within, JsonArray selectors) {
+		for (JsonElement selector : selectors) {
+			if (selector.getAsString().isEmpty())
+				return record;
+			for (Element found : record.select(selector.getAsString()))
+				if (found != record && found.closest(within) == record)
+					return found;
+		}
+		return null;
+	}
+	
+	private static boolean contains(Element root, Element element) {
+		for (Element parent = element; parent != null; parent = parent.parent())
+			if (parent == root)
+				return true;
+		return false;
+	}
+}
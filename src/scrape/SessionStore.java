@@ -0,0 +1,220 @@
+package scrape;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openqa.selenium.Cookie;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/* Keeps logged-in browser sessions (their cookies) between runs, one encrypted file
+ * per account. Files are named after a hash of the account key and encrypted with
+ * AES-GCM under a key derived from the account's secret (e.g. its password), so
+ * they're useless without it and any tampering or wrong secret just reads as no
+ * session. Restoring into several browsers lets a whole pool share one login.
+ */
+public class SessionStore {
+	public static final Path DEFAULT_DIRECTORY = Paths.get("data", "sessions");
+	private static final byte[] MAGIC = "SES1".getBytes(StandardCharsets.US_ASCII);
+	private static final int SALT_SIZE = 16, IV_SIZE = 12, TAG_BITS = 128, KEY_BITS = 256,
+		ITERATIONS = 210_000;	// PBKDF2-HMAC-SHA256, OWASP recommendation
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private final Path directory;
+
+	public SessionStore() {
+		this(DEFAULT_DIRECTORY);
+	}
+
+	public SessionStore(Path directory) {
+		this.directory = directory;
+	}
+
+	/* Browser helpers */
+
+	/* Saves the cookies of a browser that just logged in */
+	public void save(Browser browser, String key, char[] secret) throws IOException {
+		save(key, secret, browser.getCookies());
+	}
+
+	/* Loads the saved cookies into the browser, which has to be on the site's domain first
+	 * (so it visits the url), then reloads the page. Returns false if there was no usable
+	 * session, callers still have to check that the site accepted it.
+	 */
+	public boolean restore(Browser browser, String url, String key, char[] secret) throws IOException {
+		Set<Cookie> cookies = load(key, secret);
+		if (cookies == null || cookies.isEmpty())
+			return false;
+		browser.visit(url)
+			.deleteAllCookies();
+		for (Cookie cookie : cookies)
+			try {
+				browser.addCookie(cookie);
+			} catch (Exception e) {}	// cookie of another domain, not needed on this one
+		browser.refresh()
+			.waitUntilLoaded();
+		return true;
+	}
+
+	/* Storage */
+
+	public void save(String key, char[] secret, Set<Cookie> cookies) throws IOException {
+		JsonArray array = new JsonArray();
+		for (Cookie cookie : cookies)
+			array.add(toJson(cookie));
+		byte[] salt = random(SALT_SIZE), iv = random(IV_SIZE), encrypted;
+		try {
+			Cipher cipher = cipher(Cipher.ENCRYPT_MODE, key, secret, salt, iv);
+			encrypted = cipher.doFinal(array.toString().getBytes(StandardCharsets.UTF_8));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Could not encrypt session", e);
+		}
+		byte[] content = ByteBuffer.allocate(MAGIC.length + salt.length + iv.length + encrypted.length)
+			.put(MAGIC)
+			.put(salt)
+			.put(iv)
+			.put(encrypted)
+			.array();
+		write(file(key), content);
+	}
+
+	/* Cookies that didn't expire yet, or null without a (readable) session */
+	public @Nullable Set<Cookie> load(String key, char[] secret) throws IOException {
+		Path file = file(key);
+		if (!Files.exists(file))
+			return null;
+		ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(file));
+		byte[] magic = new byte[MAGIC.length], salt = new byte[SALT_SIZE], iv = new byte[IV_SIZE];
+		if (content.remaining() <= magic.length + salt.length + iv.length)
+			return null;
+		content.get(magic).get(salt).get(iv);
+		if (!MessageDigest.isEqual(magic, MAGIC))
+			return null;
+		byte[] encrypted = new byte[content.remaining()], decrypted;
+		content.get(encrypted);
+		try {
+			decrypted = cipher(Cipher.DECRYPT_MODE, key, secret, salt, iv).doFinal(encrypted);
+		} catch (AEADBadTagException e) {
+			System.err.println("Ignoring saved session: wrong secret or corrupted file");
+			return null;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Could not decrypt session", e);
+		}
+		Set<Cookie> cookies = new HashSet<>();
+		Date now = new Date();
+		for (JsonElement element : Json.to(new String(decrypted, StandardCharsets.UTF_8), JsonArray.class)) {
+			Cookie cookie = toCookie(element.getAsJsonObject());
+			if (cookie.getExpiry() == null || cookie.getExpiry().after(now))
+				cookies.add(cookie);
+		}
+		return cookies;
+	}
+
+	public boolean delete(String key) throws IOException {
+		return Files.deleteIfExists(file(key));
+	}
+
+	private Path file(String key) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			return directory.resolve(HexFormat.of().formatHex(hash) + ".session");
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// Written next to the target then moved over it, so a crash never leaves half a session
+	private void write(Path file, byte[] content) throws IOException {
+		Files.createDirectories(directory);
+		Path temporary = Files.createTempFile(directory, "session", ".tmp");
+		try {
+			try {
+				Files.setPosixFilePermissions(temporary, PosixFilePermissions.fromString("rw-------"));
+			} catch (UnsupportedOperationException e) {}	// not a posix file system
+			Files.write(temporary, content);
+			try {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/* Encryption */
+
+	// The account key is authenticated too, so a session file can't be swapped for another account's
+	private static Cipher cipher(int mode, String key, char[] secret, byte[] salt, byte[] iv) throws GeneralSecurityException {
+		PBEKeySpec spec = new PBEKeySpec(secret, salt, ITERATIONS, KEY_BITS);
+		byte[] derived;
+		try {
+			derived = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+		} finally {
+			spec.clearPassword();
+		}
+		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		cipher.init(mode, new SecretKeySpec(derived, "AES"), new GCMParameterSpec(TAG_BITS, iv));
+		cipher.updateAAD(key.getBytes(StandardCharsets.UTF_8));
+		return cipher;
+	}
+
+	private static byte[] random(int size) {
+		byte[] bytes = new byte[size];
+		RANDOM.nextBytes(bytes);
+		return bytes;
+	}
+
+	/* Cookie conversion */
+
+	private static JsonObject toJson(Cookie cookie) {
+		JsonObject json = new JsonObject();
+		json.addProperty("name", cookie.getName());
+		json.addProperty("value", cookie.getValue());
+		if (cookie.getDomain() != null)
+			json.addProperty("domain", cookie.getDomain());
+		if (cookie.getPath() != null)
+			json.addProperty("path", cookie.getPath());
+		if (cookie.getExpiry() != null)
+			json.addProperty("expiry", cookie.getExpiry().getTime());
+		json.addProperty("secure", cookie.isSecure());
+		json.addProperty("httpOnly", cookie.isHttpOnly());
+		return json;
+	}
+
+	private static Cookie toCookie(JsonObject json) {
+		Cookie.Builder builder = new Cookie.Builder(json.get("name").getAsString(), json.get("value").getAsString())
+			.path(json.has("path") ? json.get("path").getAsString() : "/")
+			.isSecure(json.get("secure").getAsBoolean())
+			.isHttpOnly(json.get("httpOnly").getAsBoolean());
+		if (json.has("domain"))
+			builder.domain(json.get("domain").getAsString());
+		if (json.has("expiry"))
+			builder.expiresOn(new Date(json.get("expiry").getAsLong()));
+		return builder.build();
+	}
+}
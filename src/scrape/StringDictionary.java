@@ -0,0 +1,44 @@
+package scrape;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/* Dictionary encoding for values that repeat a lot (e.g. user names, timestamps):
+ * every distinct string is kept once and referenced by an int code, given in order
+ * of first appearance. Null is encoded as -1. Not thread-safe while adding values.
+ */
+public class StringDictionary {
+	public static final int NULL = -1;
+
+	private final Map<String, Integer> codes = new HashMap<>();
+	private final List<String> values = new ArrayList<>();
+
+	public int encode(@Nullable String value) {
+		if (value == null)
+			return NULL;
+		Integer code = codes.get(value);
+		if (code == null) {
+			code = values.size();
+			codes.put(value, code);
+			values.add(value);
+		}
+		return code;
+	}
+
+	public @Nullable String decode(int code) {
+		return code == NULL ? null : values.get(code);
+	}
+
+	/* Code of a value without adding it, NULL if it's not in the dictionary */
+	public int code(String value) {
+		return codes.getOrDefault(value, NULL);
+	}
+
+	public int size() {
+		return values.size();
+	}
+}
@@ -0,0 +1,84 @@
+package scrape;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/* Append-only column of strings packed as UTF-8 into off-heap (direct) buffers, so
+ * that millions of texts (e.g. comment messages) cost the GC a few arrays instead of
+ * millions of objects. Strings are addressed by their index and decoded on every get.
+ * Buffers are allocated by chunks and freed along with the column. Not thread-safe
+ * while appending.
+ */
+public class TextColumn {
+	public static final int DEFAULT_CHUNK_SIZE = 4*1024*1024;	// in bytes
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final int chunkSize;
+	private final List<ByteBuffer> chunks = new ArrayList<>();
+	private long[] offsets = new long[INITIAL_CAPACITY];	// chunk index << 32 | position in the chunk
+	private int[] lengths = new int[INITIAL_CAPACITY];		// in bytes, -1 for null
+	private int size;
+	private long bytes;
+
+	public TextColumn() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	public TextColumn(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/* Index of the appended value */
+	public int append(@Nullable String value) {
+		if (size == offsets.length) {
+			offsets = Arrays.copyOf(offsets, size*2);
+			lengths = Arrays.copyOf(lengths, size*2);
+		}
+		if (value == null) {
+			lengths[size] = -1;
+			return size++;
+		}
+		byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size()-1);
+		if (chunk == null || chunk.remaining() < encoded.length) {	// values never span chunks
+			chunk = ByteBuffer.allocateDirect(Math.max(chunkSize, encoded.length));
+			chunks.add(chunk);
+		}
+		offsets[size] = (long) (chunks.size()-1) << 32 | chunk.position();
+		lengths[size] = encoded.length;
+		chunk.put(encoded);
+		bytes += encoded.length;
+		return size++;
+	}
+
+	public @Nullable String get(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException(index);
+		if (lengths[index] < 0)
+			return null;
+		byte[] encoded = new byte[lengths[index]];
+		chunks.get((int) (offsets[index] >>> 32)).get((int) offsets[index], encoded);
+		return new String(encoded, StandardCharsets.UTF_8);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/* UTF-8 bytes stored */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/* Off-heap bytes allocated, i.e. stored ones plus the unused end of the chunks */
+	public long getCapacity() {
+		return chunks.stream()
+			.mapToLong(ByteBuffer::capacity)
+			.sum();
+	}
+}
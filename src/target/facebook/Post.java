@@ -1,11 +1,26 @@
 package target.facebook;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import scrape.Json;
+
 public class Post {
 	public String text, time, likes;	// public just for gson
 	public List<Comment> replies;
+	
+	static {
+		Json.registerTypeAdapter(Comment.class, new Comment.Adapter());
+		Json.registerTypeAdapter(Post.class, new Adapter());
+	}
 
 	private Post(String text, String time, String likes) {
 		this.text = text;
@@ -18,7 +33,8 @@ public class Post {
 		return text;
 	}
 
-	public String getTime() {
+	/* Null for posts harvested without hovering them (see PostsScraper.Options::setHoverTimes) */
+	public @Nullable String getTime() {
 		return time;
 	}
 	
@@ -62,12 +78,58 @@ public class Post {
 		public Post build() {
 			if (text == null)
 				throw new IllegalArgumentException("Text cannot be null");
-			else if (time == null)
-				throw new IllegalArgumentException("Time cannot be null");
 			return new Post(text, time, likes);
 		}
 	}
 	
+	/* Rebuilds posts through their builder instead of reflection */
+	public static class Adapter extends TypeAdapter<Post> {
+		private final Comment.Adapter comments = new Comment.Adapter();
+		
+		@Override
+		public void write(JsonWriter out, Post post) throws IOException {
+			out.beginObject()
+				.name("text").value(post.text)
+				.name("time").value(post.time)
+				.name("likes").value(post.likes)
+				.name("replies").beginArray();
+			for (Comment reply : post.replies)
+				comments.write(out, reply);
+			out.endArray()
+				.endObject();
+		}
+		
+		@Override
+		public Post read(JsonReader in) throws IOException {
+			Post.Builder builder = new Post.Builder();
+			List<Comment> replies = new ArrayList<>();
+			in.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				if (in.peek() == JsonToken.NULL) {
+					in.nextNull();
+					continue;
+				}
+				switch (name) {
+					case "text": builder.setText(in.nextString()); break;
+					case "time": builder.setTime(in.nextString()); break;
+					case "likes": builder.setLikes(in.nextString()); break;
+					case "replies":
+						in.beginArray();
+						while (in.hasNext())
+							replies.add(comments.read(in));
+						in.endArray();
+						break;
+					default: in.skipValue();
+				}
+			}
+			in.endObject();
+			Post post = builder.build();
+			post.replies.addAll(replies);
+			return post;
+		}
+	}
+	
 	public static class Comment {
 		public String user, text, time, reactions;
 		
@@ -94,6 +156,40 @@ public class Post {
 			return reactions;
 		}
 		
+		public static class Adapter extends TypeAdapter<Comment> {
+			@Override
+			public void write(JsonWriter out, Comment comment) throws IOException {
+				out.beginObject()
+					.name("user").value(comment.user)
+					.name("text").value(comment.text)
+					.name("time").value(comment.time)
+					.name("reactions").value(comment.reactions)
+					.endObject();
+			}
+			
+			@Override
+			public Comment read(JsonReader in) throws IOException {
+				Comment.Builder builder = new Comment.Builder();
+				in.beginObject();
+				while (in.hasNext()) {
+					String name = in.nextName();
+					if (in.peek() == JsonToken.NULL) {
+						in.nextNull();
+						continue;
+					}
+					switch (name) {
+						case "user": builder.setUser(in.nextString()); break;
+						case "text": builder.setText(in.nextString()); break;
+						case "time": builder.setTime(in.nextString()); break;
+						case "reactions": builder.setReactions(in.nextString()); break;
+						default: in.skipValue();
+					}
+				}
+				in.endObject();
+				return builder.build();
+			}
+		}
+		
 		public static class Builder {
 			private String user, text, time, reactions;
 			
@@ -3,10 +3,15 @@ package target.facebook;
 import java.time.LocalDateTime;
 import java.util.List;
 
+import scrape.Json;
 import scrape.PagedResult;
 
 public class PostsPage extends PagedResult<Post> {
 	private static final long serialVersionUID = -650765447418493318L;
+	
+	static {
+		Json.registerPagedResult(PostsPage.class, Post.class, Builder::new);
+	}
 
 	protected PostsPage(int count, String url, LocalDateTime scraped, List<Post> posts) {
 		super(count, url, scraped, posts);
@@ -21,7 +26,7 @@ public class PostsPage extends PagedResult<Post> {
 		public PostsPage buildInstance() {
 			if (url == null || url.equals(""))
 				throw new IllegalArgumentException("Invalid page : empty url.");
-			return new PostsPage(count, url, scraped, elements);
+			return new PostsPage(getCount(), url, scraped, elements);
 		}
 	}
 }
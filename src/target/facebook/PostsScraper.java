@@ -1,85 +1,210 @@
 package target.facebook;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
 import org.openqa.selenium.WebElement;
 
-import com.google.gson.internal.LinkedTreeMap;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 
 import scrape.Browser;
 import scrape.Browser.ScrollOptions.Behavior;
 import scrape.Browser.ScrollOptions.Block;
 import scrape.Browser.ScrollOptions.Inline;
+import scrape.Checkpoint;
 import scrape.Json;
+import scrape.Schema;
+import scrape.SessionStore;
 
 public class PostsScraper {
 	/* Since facebook is fully dynamic, waiting a few seconds after loading a page gives enough lee-way 
 	 * for any dynamic changes (e.g. currently running JS code) to finish before we start scraping
 	 */
-	private static final long INITIAL_PAGE_WAIT = 5*1000;	// in ms 
-	private static final String POSTS_SELECTOR_FORMAT = "div:nth-child(2) > div > div[role=main] > div > div:nth-child(%d)";
+	private static final long INITIAL_PAGE_WAIT = 5*1000,	// in ms 
+		QUIET_PERIOD = 500,				// how long the DOM has to stay unchanged to be considered rendered
+		HTML_GENERATION_TIMEOUT = 2000;	// upper bound for facebook's hover tooltips to (dis)appear
+	public static final String LOGIN_URL = "http://www.facebook.com";
+	private static final String MAIN_SELECTOR = "div[role=main]";
+	/* Raw selectors are public so that offline fixtures can reproduce facebook's markup */
+	public static final String POSTS_SELECTOR_FORMAT = "div:nth-child(2) > div > div[role=main] > div > div:nth-child(%d)",
+		LOGIN_BUTTON_CSS = "form[method=post] > div > button[name=login]",
+		ACCOUNT_LOGO_CSS = "html:nth-of-type(1) > body:nth-of-type(1) > div:nth-of-type(1) > div:nth-of-type(1) > div:nth-of-type(1) > div:nth-of-type(1) > div:nth-of-type(2) > div:nth-of-type(4) > div:nth-of-type(1) > div:nth-of-type(4) > a:nth-of-type(1) > div:nth-of-type(1) > div:nth-of-type(1) > :nth-of-type(1)",
+		TIME_CSS = "body > div > div > div[data-pagelet=root] > div > div:nth-child(6) > div > div > div:nth-child(2) > div > div > div > span[role=tooltip] > div > div > span",
+		HOVER_CSS = "div > div > div > div > div:nth-child(4) > div:nth-child(2) > div > div:nth-child(2) > div > div > div > div > div > div > div > div > div > div > div > div > div > div:nth-child(2) > div > div:nth-child(2) > div > div:nth-child(2) > div > div:nth-child(2) > span > span > span:nth-child(2)",
+		TEXT_CSS = "div > div > div > div > div:nth-child(4) > div:nth-child(2) > div > div:nth-child(2) > div > div > div > div > div > div > div > div > div > div > div > div > div > div:nth-child(2) > div > div:nth-child(3) > div",
+		LIKES_CSS = "div > div > div > div > div > div:nth-child(2) > div > div:nth-child(4) > div > div:nth-child(1) > div > div > div > div > div > div:nth-child(2) > span > div > span:nth-child(2)",
+		SHRUNK_MESSAGE_CSS = "div[role=article] > div > div > div > div > div > div:nth-child(2) > div > div:nth-child(3) > div[data-ad-preview=message] > div > div > span > div:last-child > div:last-child > div[tabindex=\"0\"]";
+	/* Harvesting: every post container rendered so far is read in one script per scroll
+	 * step, and tagged so that the next steps only return the newly rendered ones.
+	 */
+	private static final String FEED_POSTS_CSS = POSTS_SELECTOR_FORMAT.replace(":nth-child(%d)", ""),
+		HARVESTED_ATTRIBUTE = "data-harvested";
+	private static final Schema<JsonObject> FEED = Schema.of(FEED_POSTS_CSS)
+		.text("text", TEXT_CSS)
+		.text("likes", LIKES_CSS)
+		.attribute("link", "href", "a[href*='/posts/']", "a[href*='story_fbid']", "a[href*='/permalink/']")
+		.mark(HARVESTED_ATTRIBUTE);
+	/* Untags records that weren't harvested (their text wasn't rendered yet), so that the
+	 * next steps return them again. args: attribute, marks
+	 */
+	private static final String UNMARK_SCRIPT = String.join("\n",
+		"var attribute = arguments[0];",
+		"arguments[1].forEach(function(mark) {",
+		"  var post = document.querySelector('[' + attribute + '=\"' + mark + '\"]');",
+		"  if (post) post.removeAttribute(attribute);",
+		"});");
+	private static final int SCROLL_SCREENS = 3,	// screens scrolled per harvesting step
+		MAX_IDLE_STEPS = 3;						// steps without new posts before giving up
+	// Named lookups resolved in one round trip each (see Browser::lookup)
+	private static final Map<String, String> POST_ELEMENTS = Map.of("time", HOVER_CSS, "text", TEXT_CSS, "shrunk", SHRUNK_MESSAGE_CSS),
+		POST_TEXTS = Map.of("text", TEXT_CSS, "likes", LIKES_CSS);
 	private static final By 
 		// Login selectors
 		USERNAME_SELECTOR = By.id("email"),
 		PASSWORD_SELECTOR = By.id("pass"),
 		TWOFA_SELECTOR = By.id("approvals_code"),
 		SUBMIT_SELECTOR = By.id("checkpointSubmitButton"),
-		ACCOUNT_LOGO_SELECTOR = By.cssSelector("html:nth-of-type(1) > body:nth-of-type(1) > div:nth-of-type(1) > div:nth-of-type(1) > div:nth-of-type(1) > div:nth-of-type(1) > div:nth-of-type(2) > div:nth-of-type(4) > div:nth-of-type(1) > div:nth-of-type(4) > a:nth-of-type(1) > div:nth-of-type(1) > div:nth-of-type(1) > :nth-of-type(1)"),
+		ACCOUNT_LOGO_SELECTOR = By.cssSelector(ACCOUNT_LOGO_CSS),
 		// Article selectors (obfuscated HTML -> so we can only use attributes, hierarchical and children selectors)
-		TIME_SELECTOR = By.cssSelector("body > div > div > div[data-pagelet=root] > div > div:nth-child(6) > div > div > div:nth-child(2) > div > div > div > span[role=tooltip] > div > div > span"),
-		HOVER_SELECTOR = By.cssSelector("div > div > div > div > div:nth-child(4) > div:nth-child(2) > div > div:nth-child(2) > div > div > div > div > div > div > div > div > div > div > div > div > div > div:nth-child(2) > div > div:nth-child(2) > div > div:nth-child(2) > div > div:nth-child(2) > span > span > span:nth-child(2)"),
-		TEXT_SELECTOR = By.cssSelector("div > div > div > div > div:nth-child(4) > div:nth-child(2) > div > div:nth-child(2) > div > div > div > div > div > div > div > div > div > div > div > div > div > div:nth-child(2) > div > div:nth-child(3) > div"),
-		LIKES_SELECTOR = By.cssSelector("div > div > div > div > div > div:nth-child(2) > div > div:nth-child(4) > div > div:nth-child(1) > div > div > div > div > div > div:nth-child(2) > span > div > span:nth-child(2)"),
-		SHRUNK_MESSAGE_SELECTOR = By.cssSelector("div[role=article] > div > div > div > div > div > div:nth-child(2) > div > div:nth-child(3) > div[data-ad-preview=message] > div > div > span > div:last-child > div:last-child > div[tabindex=\"0\"]")
+		TIME_SELECTOR = By.cssSelector(TIME_CSS)
 		;
 	
 	private Credentials credentials;		// to retrieve login creds
 	private Predicate<Post> stopCondition;	// defines when to stop scraping posts
+	private Checkpoint<Post, PostsPage> checkpoint;	// null when not resuming
+	private String loginUrl = LOGIN_URL;
+	private boolean headless = false;
+	private boolean harvest = false, hoverTimes = true;
+	private SessionStore sessions = new SessionStore();	// null to always log in
+	private Json.PageWriter output;			// null when pages are kept for getPages()
 	private List<PostsPage> pages;
 	private int count = 0;					// retrieved posts count
 	
 	public PostsScraper(Credentials credentials, Predicate<Post> stopCondition, String...urls) {
 		this.credentials = credentials;
 		this.stopCondition = stopCondition;
-		pages = new ArrayList<>();
+		pages = scrape(urls);
+	}
+	
+	/* Resumes from the checkpoint directory: pages completed in a previous run are
+	 * reused and partially scraped ones continue from the last saved post index.
+	 */
+	public PostsScraper(Credentials credentials, Predicate<Post> stopCondition, Path checkpoint, String...urls) throws IOException {
+		this(credentials, stopCondition, new Options().setCheckpoint(checkpoint), urls);
+	}
+	
+	public PostsScraper(Credentials credentials, Predicate<Post> stopCondition, Options options, String...urls) throws IOException {
+		this.credentials = credentials;
+		this.stopCondition = stopCondition;
+		loginUrl = options.loginUrl;
+		headless = options.headless;
+		sessions = options.sessions;
+		harvest = options.harvest;
+		hoverTimes = options.hoverTimes;
+		if (options.checkpoint != null)
+			checkpoint = new Checkpoint<>(options.checkpoint, Post.class, PostsPage.Builder::new);
+		if (options.output != null)
+			output = Json.newPageWriter(options.output);
+		try {
+			pages = scrape(urls);
+		} finally {
+			try {
+				if (checkpoint != null)
+					checkpoint.close();
+			} finally {
+				if (output != null)
+					output.close();
+			}
+		}
+	}
+	
+	private List<PostsPage> scrape(String...urls) {
+		List<PostsPage> pages = new ArrayList<>();
+		if (Arrays.stream(urls).allMatch(this::isDone)) {
+			for (String url : urls)
+				keep(pages, checkpoint.getPage(url));
+			return pages;
+		}
 		try (
-			Browser browser = new Browser(false);
+			Browser browser = new Browser(headless);
 			Scanner scanner = new Scanner(System.in)
 		) {
 			login(browser, scanner);
 			for (String url : urls)
-				pages.add(loadPosts(browser, url));
+				keep(pages, isDone(url) ? checkpoint.getPage(url) : 
+					harvest ? harvestPosts(browser, url) : loadPosts(browser, url));
 		}
+		return pages;
 	}
 	
 	/* Login process methods */
 	
 	private void login(Browser browser, Scanner scanner) {
 		System.out.println("Logging into account : "+credentials.getUsername());
+		if (restoreSession(browser))
+			return;
 		try {
 			// Enter credentials and click login
-			By loginButton = By.cssSelector("form[method=post] > div > button[name=login]");
-			browser.visit("http://www.facebook.com")
+			By loginButton = By.cssSelector(LOGIN_BUTTON_CSS);
+			browser.visit(loginUrl)
 				.type(credentials.getUsername(), USERNAME_SELECTOR)
 				.type(credentials.getPassword(), PASSWORD_SELECTOR)
 				.click(loginButton)
 				.waitUntilLoaded();
 			check2FA(browser, scanner);
+			saveSession(browser);
 		} catch (Exception e) {
 			System.out.println("ABORTED: Could not login.");
 			e.printStackTrace();
 		}
 	}
 	
+	// Reuses the cookies of a previous login if facebook still accepts them
+	private boolean restoreSession(Browser browser) {
+		if (sessions == null)
+			return false;
+		try {
+			if (!sessions.restore(browser, loginUrl, credentials.getUsername(), credentials.getPassword().toCharArray()))
+				return false;
+			browser.waitForAppear(ACCOUNT_LOGO_CSS, INITIAL_PAGE_WAIT);
+			if (!isNotLoggedIn(browser)) {
+				System.out.println("Restored saved session");
+				return true;
+			}
+			System.out.println("Saved session expired, logging in again");
+			sessions.delete(credentials.getUsername());
+			browser.deleteAllCookies();
+		} catch (IOException e) {
+			System.err.println("Could not restore saved session: "+e);
+		}
+		return false;
+	}
+	
+	private void saveSession(Browser browser) {
+		if (sessions != null)
+			try {
+				sessions.save(browser, credentials.getUsername(), credentials.getPassword().toCharArray());
+			} catch (IOException e) {
+				System.err.println("Could not save session: "+e);
+			}
+	}
+	
 	// Checks for and handles two factor authentication
 	private void check2FA(Browser browser, Scanner scanner) {
 		if (browser.waitGet(TWOFA_SELECTOR) != null) {
@@ -133,47 +258,130 @@ public class PostsScraper {
 		// Visit page
 		browser.visit(url)
 			.waitUntilLoaded()
-			.sleep(INITIAL_PAGE_WAIT);
-		// Keep scraping posts until stop condition
-		List<Post> posts = new ArrayList<>();
+			.waitForSettle(MAIN_SELECTOR, QUIET_PERIOD, INITIAL_PAGE_WAIT);
+		// Keep scraping posts until stop condition (resuming after the saved ones)
+		List<Post> posts = checkpoint == null ? new ArrayList<>() : checkpoint.getPartial(url);
+		count = posts.size();
+		if (count > 0)
+			System.out.println("Resuming after "+count+" saved posts");
 		String format;
 		WebElement element;
-		Post post;
-		do {
+		Post post = count > 0 ? posts.get(count-1) : null;
+		while (post == null || !stopCondition.test(post)) {
 			format = String.format(POSTS_SELECTOR_FORMAT, ++count);
-			element = browser.get(By.cssSelector(format));
-			posts.add(post = convertToPost(browser, element));
-		} while (!stopCondition.test(post));
+			element = browser.get(By.cssSelector(format), POSTS_SELECTOR_FORMAT);
+			posts.add(post = save(url, convertToPost(browser, element)));
+		}
 		System.out.println("Scraped "+count+" posts.");
 		count = 0; 		// reset total posts count per url
-		return new PostsPage.Builder()
+		PostsPage page = new PostsPage.Builder()
+			.setUrl(url)
+			.setElements(posts)
+			.build();
+		return complete(page);
+	}
+	
+	/* Scrolls the feed a few screens at a time and converts every post rendered by each
+	 * step, deduplicated by permalink (or text when there's none). Stops on the stop
+	 * condition or once scrolling stopped bringing new posts.
+	 */
+	private PostsPage harvestPosts(Browser browser, String url) {
+		System.out.printf("Harvesting : %s%n", url);
+		browser.visit(url)
+			.waitUntilLoaded()
+			.waitForSettle(MAIN_SELECTOR, QUIET_PERIOD, INITIAL_PAGE_WAIT);
+		List<Post> posts = checkpoint == null ? new ArrayList<>() : checkpoint.getPartial(url);
+		Set<String> seen = new HashSet<>(), resumed = new HashSet<>();
+		posts.forEach(post -> resumed.add(post.getText()));	// saved posts have no permalink
+		if (!posts.isEmpty())
+			System.out.println("Resuming after "+posts.size()+" saved posts");
+		long step = SCROLL_SCREENS * browser.<Long>evaluate("return window.innerHeight;");
+		boolean stopped = !posts.isEmpty() && stopCondition.test(posts.get(posts.size()-1));
+		int idle = 0;
+		while (!stopped && idle < MAX_IDLE_STEPS) {
+			int added = 0;
+			List<String> unrendered = new ArrayList<>();
+			for (JsonElement element : FEED.extractJson(browser, null)) {
+				JsonObject record = element.getAsJsonObject();
+				String text = string(record, "text"), link = string(record, "link");
+				if (text == null)
+					unrendered.add(string(record, HARVESTED_ATTRIBUTE));
+				if (text == null || resumed.contains(text) || !seen.add(link != null ? link : text))
+					continue;
+				Post post = save(url, harvestPost(browser, record));
+				posts.add(post);
+				added++;
+				if (stopped = stopCondition.test(post))
+					break;
+			}
+			if (!unrendered.isEmpty())
+				browser.evaluate(UNMARK_SCRIPT, HARVESTED_ATTRIBUTE, unrendered);
+			idle = added == 0 ? idle+1 : 0;
+			if (!stopped)
+				browser.scrollByJS(0, (int) step)
+					.waitForSettle(FEED_POSTS_CSS, QUIET_PERIOD, INITIAL_PAGE_WAIT);
+		}
+		System.out.println("Harvested "+posts.size()+" posts.");
+		PostsPage page = new PostsPage.Builder()
 			.setUrl(url)
 			.setElements(posts)
 			.build();
+		return complete(page);
+	}
+	
+	// Only the time needs the post's elements, since facebook renders it in a hover tooltip
+	private Post harvestPost(Browser browser, JsonObject record) {
+		Post.Builder builder = new Post.Builder()
+			.setText(string(record, "text"))
+			.setLikes(string(record, "likes"));
+		if (hoverTimes) {
+			String post = "["+HARVESTED_ATTRIBUTE+"='"+string(record, HARVESTED_ATTRIBUTE)+"'] ";
+			Map<String, WebElement> elements = browser.lookupElements(null, Map.of("time", post+HOVER_CSS, "text", post+TEXT_CSS));
+			if (elements.get("time") != null) {
+				// Steps scroll several screens, so the post may be off the viewport (which hovering can't reach)
+				browser.scrollIntoView(elements.get("time"), Behavior.AUTO, Block.CENTER, Inline.CENTER);
+				WebElement time = browser.hover(elements.get("time"))
+					.waitForAppear(TIME_CSS, HTML_GENERATION_TIMEOUT)
+					.get(TIME_SELECTOR);
+				builder.setTime(time == null ? null : time.getText());
+				browser.hover(elements.get("text"))
+					.waitForDisappear(TIME_CSS, HTML_GENERATION_TIMEOUT);
+			}
+		}
+		return builder.build();
+	}
+	
+	private static String string(JsonObject json, String field) {
+		JsonElement value = json.get(field);
+		return value == null || value.isJsonNull() ? null : value.getAsString();
 	}
 	
 	private Post convertToPost(Browser browser, WebElement dom) {
-		WebElement time = dom.findElement(HOVER_SELECTOR),
-				likes = dom.findElement(LIKES_SELECTOR),
-				text = dom.findElement(TEXT_SELECTOR);
+		Map<String, WebElement> elements = browser.lookupElements(dom, POST_ELEMENTS);
+		WebElement time = elements.get("time"),
+				text = elements.get("text"),
+				shrunk = elements.get("shrunk");
+		if (time == null || text == null)
+			throw new NoSuchElementException("Post is missing its "+(time == null ? "time" : "text"));
 		// Scroll post into view
 		browser.scrollIntoView(time, Behavior.AUTO, Block.CENTER, Inline.CENTER);
 		// Optionally expand shrunken message
-		try {
-			dom.findElement(SHRUNK_MESSAGE_SELECTOR).click();
-		} catch (Exception e) {}
-		// Scrape data
-		long htmlGenerationDelay = 2000;
+		if (shrunk != null)
+			try {
+				shrunk.click();
+			} catch (Exception e) {}
+		// Scrape data (after expanding, so that the full text is rendered)
+		Map<String, String> texts = browser.lookup(dom, POST_TEXTS);
 		Post.Builder builder = new Post.Builder()
-			.setText(text.getText())
-			.setLikes(likes.getText())
+			.setText(texts.get("text"))
+			.setLikes(texts.get("likes"))
 			.setTime(browser.hover(time)
-				.sleep(htmlGenerationDelay)
+				.waitForAppear(TIME_CSS, HTML_GENERATION_TIMEOUT)
 				.get(TIME_SELECTOR)
 				.getText());
 		// Remove mouse from time DOM element (triggers facebook's onmouseleave cleanup code to delete generated HTML)
 		browser.hover(text)
-			.sleep(htmlGenerationDelay);	// in this case it's for HTML removal delay
+			.waitForDisappear(TIME_CSS, HTML_GENERATION_TIMEOUT);
 		Post post = builder.build();
 		loadComments(post, dom);
 		return post;
@@ -183,6 +391,47 @@ public class PostsScraper {
 		
 	}
 	
+	/* Checkpoint handling */
+	
+	// Restored from a previous run (pages completed by this one aren't kept, see Checkpoint::getPage)
+	private boolean isDone(String url) {
+		return checkpoint != null && checkpoint.getPage(url) != null;
+	}
+	
+	private Post save(String url, Post post) {
+		if (checkpoint != null)
+			try {
+				checkpoint.save(url, post);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		return post;
+	}
+	
+	private PostsPage complete(PostsPage page) {
+		if (checkpoint != null)
+			try {
+				checkpoint.complete(page);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		return page;
+	}
+	
+	/* Output */
+	
+	// Writes the page out right away when streaming to an output, or keeps it for getPages()
+	private void keep(List<PostsPage> pages, PostsPage page) {
+		if (output == null)
+			pages.add(page);
+		else
+			try {
+				output.writePage(page);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+	}
+	
 	/* Convenience methods */
 	
 	/** On successful login, we should see the user's account logo on the 
@@ -214,18 +463,84 @@ public class PostsScraper {
 					.contains("Review recent login");
 	}
 	
+	public static class Options {
+		private String loginUrl = LOGIN_URL;
+		private boolean headless = false;
+		private Path checkpoint, output;
+		private SessionStore sessions = new SessionStore();
+		private boolean harvest = false, hoverTimes = true;
+		
+		public Options setLoginUrl(String loginUrl) {
+			this.loginUrl = loginUrl;
+			return this;
+		}
+		
+		public Options setHeadless(boolean headless) {
+			this.headless = headless;
+			return this;
+		}
+		
+		public Options setCheckpoint(Path directory) {
+			this.checkpoint = directory;
+			return this;
+		}
+		
+		/* Writes every page to the file (same format as serialize) as soon as it's scraped,
+		 * instead of keeping them all for getPages()
+		 */
+		public Options setOutput(Path file) {
+			this.output = file;
+			return this;
+		}
+		
+		/* Scrolls the feed in large steps and reads all the posts each step rendered at once,
+		 * instead of locating and scrolling to posts one by one.
+		 */
+		public Options setHarvest(boolean harvest) {
+			this.harvest = harvest;
+			return this;
+		}
+		
+		/* Harvested post times come from hovering each post, without them posts are only read 
+		 * in bulk and have a null time (so stop conditions can't rely on getTime())
+		 */
+		public Options setHoverTimes(boolean hoverTimes) {
+			this.hoverTimes = hoverTimes;
+			return this;
+		}
+		
+		/* Where logged-in sessions are kept between runs, null to always log in */
+		public Options setSessions(SessionStore sessions) {
+			this.sessions = sessions;
+			return this;
+		}
+	}
+	
+	/* Empty when the pages were streamed to an output (see Options::setOutput) */
+	public List<PostsPage> getPages() {
+		return pages;
+	}
+	
 	/* Serialization code */
 	
 	public Path serialize(String filename) throws IOException {
-		return Files.writeString(Paths.get(filename), Json.of(pages));
+		Path path = Paths.get(filename);
+		try (Json.PageWriter writer = Json.newPageWriter(path)) {
+			for (PostsPage page : pages)
+				writer.writePage(page);
+		}
+		return path;
+	}
+	
+	public static List<PostsPage> deserialize(String filename) throws IOException {
+		try (Reader reader = Files.newBufferedReader(Paths.get(filename))) {
+			return Json.toPagedResultList(reader, PostsPage.class);
+		}
 	}
 	
-	public static <T> List<List<LinkedTreeMap<String, T>>> deserialize(String filename) throws IOException {
-		String json = Files.newBufferedReader(Paths.get(filename))
-			.lines()
-			.reduce((s1,s2) -> s1 + System.lineSeparator() + s2)
-			.get();
-		return Json.toList(json);
+	/* Lazily reads back one page at a time, close the stream when done */
+	public static Stream<PostsPage> streamPages(String filename) throws IOException {
+		return Json.streamPages(Paths.get(filename), PostsPage.class);
 	}
 	
 	@Override
@@ -1,18 +1,32 @@
 package target.vnexpress;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.regex.Pattern;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import scrape.Json;
 
 public class Comment {
 	public final String user, message, timestamp;
+	public final String parent;		// key of the comment replied to, only for replies scraped on their own (delta mode)
 	public final List<Comment> replies;
+	private static final Pattern WHITESPACE = Pattern.compile("[\\s\\u00A0]+");	// nbsp included
+	
+	static {
+		Json.registerTypeAdapter(Comment.class, new Adapter());
+	}
 	
-	private Comment(String user, String message, String timestamp) {
+	private Comment(String user, String message, String timestamp, String parent) {
 		this.user = user;
 		this.message = message;
 		this.timestamp = timestamp;
+		this.parent = parent;
 		this.replies = new ArrayList<>();
 	}
 	
@@ -21,13 +35,33 @@ public class Comment {
 		return this;
 	}
 	
+	/* Identifies the comment across runs, see CommentsScraper delta mode */
+	public String getKey() {
+		return key(user, message, timestamp);
+	}
+	
+	/* Whitespace doesn't count since every scraping mode renders it differently (e.g. a <br> is
+	 * nothing in textContent, a newline in innerText and a space in jsoup's text)
+	 */
+	public static String key(String user, String message, String timestamp) {
+		return collapse(user) + "|" + collapse(timestamp) + "|" + Integer.toHexString(WHITESPACE.matcher(message).replaceAll("").hashCode());
+	}
+	
+	private static String collapse(String text) {
+		return WHITESPACE.matcher(text).replaceAll(" ").trim();
+	}
+	
 	@Override
 	public String toString() {
-		return jsonify(0);
+		try {
+			return writeTo(new StringBuilder()).toString();
+		} catch (IOException e) {	// StringBuilder doesn't throw
+			throw new UncheckedIOException(e);
+		}
 	}
 	
 	public static class Builder {
-		public String user, message, timestamp;
+		public String user, message, timestamp, parent;
 	
 		public Comment.Builder setUser(String user) {
 			this.user = user;
@@ -44,6 +78,11 @@ public class Comment {
 			return this;
 		}
 		
+		public Comment.Builder setParent(String parent) {
+			this.parent = parent;
+			return this;
+		}
+		
 		public Comment build() {
 			if (user == null)
 				throw new IllegalArgumentException("User cannot be null");
@@ -51,34 +90,120 @@ public class Comment {
 				throw new IllegalArgumentException("Message cannot be null");
 			if (timestamp == null)
 				throw new IllegalArgumentException("Timestamp cannot be null");
-			return new Comment(user, message, timestamp);
+			return new Comment(user, message, timestamp, parent);
+		}
+	}
+	
+	/* Rebuilds comments through their builder instead of reflection */
+	public static class Adapter extends TypeAdapter<Comment> {
+		@Override
+		public void write(JsonWriter out, Comment comment) throws IOException {
+			out.beginObject()
+				.name("user").value(comment.user)
+				.name("message").value(comment.message)
+				.name("timestamp").value(comment.timestamp);
+			if (comment.parent != null)
+				out.name("parent").value(comment.parent);
+			out.name("replies").beginArray();
+			for (Comment reply : comment.replies)
+				write(out, reply);
+			out.endArray()
+				.endObject();
+		}
+		
+		@Override
+		public Comment read(JsonReader in) throws IOException {
+			Comment.Builder builder = new Comment.Builder();
+			List<Comment> replies = new ArrayList<>();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+					case "user": builder.setUser(in.nextString()); break;
+					case "message": builder.setMessage(in.nextString()); break;
+					case "timestamp": builder.setTimestamp(in.nextString()); break;
+					case "parent": builder.setParent(in.nextString()); break;
+					case "replies":
+						in.beginArray();
+						while (in.hasNext())
+							replies.add(read(in));
+						in.endArray();
+						break;
+					default: in.skipValue();
+				}
+			}
+			in.endObject();
+			Comment comment = builder.build();
+			comment.replies.addAll(replies);
+			return comment;
 		}
 	}
 	
 	// Manual jsonify methods
 	
-	private static String escape(String input) {
-		return input.replace("\"", "\\\"")	// escape double quotes
-				.replace("\n", "\\n");		// escape newlines
+	private static final String TABS = "\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t";	// shared indentation
+	
+	/* Renders the whole reply tree in a single pass straight into the given output 
+	 * (e.g. a reused StringBuilder or a Writer), without intermediate strings.
+	 */
+	public <A extends Appendable> A writeTo(A out) throws IOException {
+		write(out, 0);
+		return out;
 	}
 	
-	private static String tabs(int i) {
-		StringBuilder sb = new StringBuilder();
-		while (i-->0) sb.append("\t");
-		return sb.toString();
+	private void write(Appendable out, int depth) throws IOException {
+		out.append('\n');
+		indent(out, depth).append("{\n");
+		field(out, depth+1, "user", user).append(",\n");
+		field(out, depth+1, "message", message).append(",\n");
+		field(out, depth+1, "timestamp", timestamp).append(",\n");
+		if (parent != null)
+			field(out, depth+1, "parent", parent).append(",\n");
+		indent(out, depth+1).append("\"replies\": [");
+		for (int i = 0; i < replies.size(); i++) {
+			if (i > 0)
+				out.append(", ");
+			replies.get(i).write(out, depth+1);
+		}
+		out.append("]\n");
+		indent(out, depth).append('}');
+	}
+	
+	private static Appendable field(Appendable out, int depth, String name, String value) throws IOException {
+		indent(out, depth).append('"').append(name).append("\": ");
+		return escape(out, value);
 	}
 	
-	private String jsonify(final int depth) {
-		final String tab = tabs(depth);
-		return  "\n"+
-				tab + "{\n" +
-				tab + "\t\"user\": \"" + user + "\",\n" +
-				tab + "\t\"message\": \"" + escape(message) + "\",\n" +
-				tab + "\t\"timestamp\": \"" + timestamp + "\",\n" +
-				tab + "\t\"replies\": " + Arrays.deepToString(replies.stream()
-					.map(comment -> comment.jsonify(depth+1))
-					.collect(Collectors.toList())
-					.toArray()) + "\n" +
-				tab + "}";
+	private static Appendable indent(Appendable out, int depth) throws IOException {
+		for (; depth > TABS.length(); depth -= TABS.length())
+			out.append(TABS);
+		return out.append(TABS, 0, depth);
+	}
+	
+	// Quotes and escapes a JSON string, copying unescaped runs in one go
+	private static Appendable escape(Appendable out, String input) throws IOException {
+		out.append('"');
+		int start = 0, length = input.length();
+		for (int i = 0; i < length; i++) {
+			char c = input.charAt(i);
+			String replacement;
+			switch (c) {
+				case '"': replacement = "\\\""; break;
+				case '\\': replacement = "\\\\"; break;
+				case '\n': replacement = "\\n"; break;
+				case '\r': replacement = "\\r"; break;
+				case '\t': replacement = "\\t"; break;
+				case '\b': replacement = "\\b"; break;
+				case '\f': replacement = "\\f"; break;
+				case '\u2028': replacement = "\\u2028"; break;
+				case '\u2029': replacement = "\\u2029"; break;
+				default:
+					if (c >= 0x20)
+						continue;
+					replacement = String.format("\\u%04x", (int) c);
+			}
+			out.append(input, start, i).append(replacement);
+			start = i+1;
+		}
+		return out.append(input, start, length).append('"');
 	}
 }
\ No newline at end of file
@@ -0,0 +1,240 @@
+package target.vnexpress;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import scrape.PagedResult;
+import scrape.StringDictionary;
+import scrape.TextColumn;
+
+/* Compact read-only copy of scraped pages, to hold whole crawls in memory (e.g. for
+ * analysis) without millions of Comment objects: users, timestamps and parent keys
+ * are dictionary encoded, messages are packed off-heap as UTF-8 (see TextColumn) and
+ * reply trees are flattened into int columns. Comments are read through lightweight
+ * views that decode on access, and turned back into Comment objects only on demand.
+ * e.g. CommentStore.load("comments.json").getPage(0).getComments().get(0).getMessage()
+ */
+public class CommentStore {
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final StringDictionary users = new StringDictionary(), timestamps = new StringDictionary(),
+		parents = new StringDictionary();
+	private final TextColumn messages = new TextColumn();	// indexed by row
+	// One row per comment in depth-first order, so replies follow their comment up to the end of its subtree
+	private int[] userCodes = new int[INITIAL_CAPACITY], timestampCodes = new int[INITIAL_CAPACITY],
+		parentCodes = new int[INITIAL_CAPACITY], ends = new int[INITIAL_CAPACITY];
+	private int size;
+	private final List<PageView> pages = new ArrayList<>();
+
+	/* Streams the serialized pages in, so they never are all on the heap at once */
+	public static CommentStore load(String filename) throws IOException {
+		CommentStore store = new CommentStore();
+		try (Stream<CommentsPage> pages = CommentsScraper.streamPages(filename)) {
+			pages.forEach(store::add);
+		}
+		return store;
+	}
+
+	public static CommentStore of(Collection<? extends PagedResult<Comment>> pages) {
+		CommentStore store = new CommentStore();
+		pages.forEach(store::add);
+		return store;
+	}
+
+	/* Index of the added page */
+	public int add(PagedResult<Comment> page) {
+		int first = size;
+		for (Comment comment : page)
+			add(comment);
+		pages.add(new PageView(page.getCount(), page.getUrl(), page.getScraped(), page.isTruncated(), first, size));
+		return pages.size()-1;
+	}
+
+	private void add(Comment comment) {
+		if (size == ends.length) {
+			userCodes = Arrays.copyOf(userCodes, size*2);
+			timestampCodes = Arrays.copyOf(timestampCodes, size*2);
+			parentCodes = Arrays.copyOf(parentCodes, size*2);
+			ends = Arrays.copyOf(ends, size*2);
+		}
+		int row = size++;
+		userCodes[row] = users.encode(comment.user);
+		timestampCodes[row] = timestamps.encode(comment.timestamp);
+		parentCodes[row] = parents.encode(comment.parent);
+		messages.append(comment.message);
+		for (Comment reply : comment.replies)
+			add(reply);
+		ends[row] = size;
+	}
+
+	// Views of the rows directly under a subtree (i.e. skipping the replies of replies)
+	private List<CommentView> children(int first, int end) {
+		List<CommentView> children = new ArrayList<>();
+		for (int row = first; row < end; row = ends[row])
+			children.add(new CommentView(row));
+		return Collections.unmodifiableList(children);
+	}
+
+	/* Reading */
+
+	public int getPageCount() {
+		return pages.size();
+	}
+
+	public PageView getPage(int index) {
+		return pages.get(index);
+	}
+
+	public List<PageView> getPages() {
+		return Collections.unmodifiableList(pages);
+	}
+
+	/* Comments and replies of every page */
+	public int size() {
+		return size;
+	}
+
+	public CommentView get(int row) {
+		if (row < 0 || row >= size)
+			throw new IndexOutOfBoundsException(row);
+		return new CommentView(row);
+	}
+
+	public int getDistinctUsers() {
+		return users.size();
+	}
+
+	public int getDistinctTimestamps() {
+		return timestamps.size();
+	}
+
+	public long getOffHeapBytes() {
+		return messages.getCapacity();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d pages, %d comments, %d users, %d timestamps, %.1f MB of messages off-heap",
+			pages.size(), size, users.size(), timestamps.size(), messages.getBytes() / (1024.0*1024.0));
+	}
+
+	/* Views */
+
+	public class PageView {
+		private final int count, first, end;
+		private final String url;
+		private final LocalDateTime scraped;
+		private final boolean truncated;
+
+		private PageView(int count, String url, LocalDateTime scraped, boolean truncated, int first, int end) {
+			this.count = count;
+			this.url = url;
+			this.scraped = scraped;
+			this.truncated = truncated;
+			this.first = first;
+			this.end = end;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public LocalDateTime getScraped() {
+			return scraped;
+		}
+
+		public boolean isTruncated() {
+			return truncated;
+		}
+
+		/* Top-level comments */
+		public List<CommentView> getComments() {
+			return children(first, end);
+		}
+
+		/* Comments and replies */
+		public int size() {
+			return end - first;
+		}
+
+		public CommentsPage toPage() {
+			List<Comment> comments = new ArrayList<>();
+			for (CommentView comment : getComments())
+				comments.add(comment.toComment());
+			return new CommentsPage.Builder()
+				.setCount(count)
+				.setUrl(url)
+				.setTime(scraped)
+				.setTruncated(truncated)
+				.setElements(comments)
+				.build();
+		}
+	}
+
+	/* Read-only comment, decoded from the columns on every call */
+	public class CommentView {
+		private final int row;
+
+		private CommentView(int row) {
+			this.row = row;
+		}
+
+		public String getUser() {
+			return users.decode(userCodes[row]);
+		}
+
+		public String getMessage() {
+			return messages.get(row);
+		}
+
+		public String getTimestamp() {
+			return timestamps.decode(timestampCodes[row]);
+		}
+
+		public @Nullable String getParent() {
+			return parents.decode(parentCodes[row]);
+		}
+
+		public List<CommentView> getReplies() {
+			return children(row+1, ends[row]);
+		}
+
+		/* Replies at any depth */
+		public int getTotalReplies() {
+			return ends[row] - row - 1;
+		}
+
+		public String getKey() {
+			return Comment.key(getUser(), getMessage(), getTimestamp());
+		}
+
+		public Comment toComment() {
+			Comment comment = new Comment.Builder()
+				.setUser(getUser())
+				.setMessage(getMessage())
+				.setTimestamp(getTimestamp())
+				.setParent(getParent())
+				.build();
+			for (CommentView reply : getReplies())
+				comment.addReply(reply.toComment());
+			return comment;
+		}
+
+		@Override
+		public String toString() {
+			return toComment().toString();
+		}
+	}
+}
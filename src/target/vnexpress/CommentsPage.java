@@ -3,10 +3,15 @@ package target.vnexpress;
 import java.time.LocalDateTime;
 import java.util.List;
 
+import scrape.Json;
 import scrape.PagedResult;
 
 public class CommentsPage extends PagedResult<Comment> {
 	private static final long serialVersionUID = 7692137280218198995L;
+	
+	static {
+		Json.registerPagedResult(CommentsPage.class, Comment.class, Builder::new);
+	}
 
 	private CommentsPage(int count, String url, LocalDateTime scraped, List<Comment> comments) {
 		super(count, url, scraped, comments);
@@ -21,7 +26,7 @@ public class CommentsPage extends PagedResult<Comment> {
 		public CommentsPage buildInstance() {
 			if (url == null || url.equals(""))
 				throw new IllegalArgumentException("Invalid page : empty url.");
-			return new CommentsPage(count, url, scraped, elements);
+			return new CommentsPage(getCount(), url, scraped, elements);
 		}
 	}
 }
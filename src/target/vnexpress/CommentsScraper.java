@@ -1,115 +1,806 @@
 package target.vnexpress;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
+import javax.annotation.Nullable;
+
+import org.jsoup.nodes.Element;
 import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
 import org.openqa.selenium.WebElement;
 
-import com.google.gson.internal.LinkedTreeMap;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 
 import scrape.Browser;
+import scrape.BrowserPool;
+import scrape.Checkpoint;
+import scrape.Fetcher;
+import scrape.FingerprintStore;
 import scrape.Json;
+import scrape.KnownKeys;
+import scrape.ResourcePolicy;
+import scrape.Schema;
 
 public class CommentsScraper {
-	public static final String USER_SELECTOR = "a.nickname > b",
+	public static final String COMMENTS_BOX_SELECTOR = "div.box_comment_vne.width_common",
+			USER_SELECTOR = "a.nickname > b",
 			BIG_USER_SELECTOR = ".content_more > .txt-name > .nickname > b",
 			MESSAGE_SELECTOR = "div.content-comment > p.full_content",
 			BIG_MESSAGE_SELECTOR = "div.content-comment > p.content_more",
 			TIME_SELECTOR = "span.time-com",
 			LOAD_SELECTOR = "p.count-reply > a.view_all_reply",
-			SHRUNKEN_COMMENT = "div.content-comment > p.content_less > a.icon_show_full_comment";
-	private int count = 0;	// comments count
+			SHRUNKEN_COMMENT = "div.content-comment > p.content_less > a.icon_show_full_comment",
+			COMMENT_SELECTOR = "div.comment_item.width_common",
+			REPLY_SELECTOR = ".sub_comment_item.comment_item.width_common",
+			TOP_COMMENT_SELECTOR = COMMENT_SELECTOR+":not(.sub_comment_item)";
+	// Named lookups resolved in one round trip each (see Browser::lookup)
+	private static final Map<String, String> EXPAND_BUTTON = Map.of("expand", SHRUNKEN_COMMENT),
+			TEXTS = Map.of("user", USER_SELECTOR, "message", MESSAGE_SELECTOR, "time", TIME_SELECTOR),
+			BIG_TEXTS = Map.of("user", BIG_USER_SELECTOR, "message", BIG_MESSAGE_SELECTOR, "time", TIME_SELECTOR);
+	private static final int MAX_EXPAND_ROUNDS = 100;
+	// Whole text of the comments box (including its comments count), hashed into the page fingerprint
+	private static final String FINGERPRINT_SCRIPT = "return arguments[0].textContent;";
+	private static final long LOAD_TIMEOUT = 5000,	// in ms, for a 'load replies' click to add any
+		QUIET_PERIOD = 500;							// in ms, without changes for the comments box to be rendered
+	public static final long DEFAULT_TIME_BUDGET = 5*60*1000;	// in ms, per page
+	/* Clicks every visible 'load replies' button under the root and returns how many 
+	 * replies were rendered before the clicks, so that the caller can wait for more.
+	 * args: root, load selector, reply selector
+	 */
+	private static final String EXPAND_SCRIPT = String.join("\n",
+		"var root = arguments[0], clicked = 0;",
+		"root.querySelectorAll(arguments[1]).forEach(function(a) { a.click(); clicked++; });",
+		"return [clicked, root.querySelectorAll(arguments[2]).length];");
+	// args: root, reply selector
+	private static final String COUNT_SCRIPT = "return arguments[0].querySelectorAll(arguments[1]).length;";
+	/* Whole comment tree extracted in a single in-page script. Shrunken comments 
+	 * don't need to be expanded since their full text is already in the DOM.
+	 */
+	private static final Schema<JsonObject> COMMENTS = Schema.of(COMMENT_SELECTOR)
+		.text("user", BIG_USER_SELECTOR, USER_SELECTOR)
+		.text("message", BIG_MESSAGE_SELECTOR, MESSAGE_SELECTOR)
+		.text("timestamp", TIME_SELECTOR)
+		.recursive("replies", REPLY_SELECTOR);
+	
+	/* ELEMENTS walks the DOM through WebDriver calls (a few round trips per comment), 
+	 * SCRIPT extracts the whole comment tree with a single in-page script, STATIC reads
+	 * the server-rendered html without any browser (so only the comments and replies it
+	 * already contains) and falls back to SCRIPT for pages that don't have any.
+	 */
+	public static enum Mode { ELEMENTS, SCRIPT, STATIC }
+	
+	private final Mode mode;
+	private final ResourcePolicy policy;
+	private final Checkpoint<Comment, CommentsPage> checkpoint;	// null when not resuming
+	private final FingerprintStore<CommentsPage> fingerprints;		// null when not skipping unchanged pages
+	private final KnownKeys keys;	// null unless in delta mode
+	private final Json.PageWriter output;	// null when pages are kept for getPages()
+	// Per page limits, pages that hit one are returned as they are but marked truncated
+	private int maxComments = Integer.MAX_VALUE, maxReplies = Integer.MAX_VALUE, maxDepth = Integer.MAX_VALUE;
+	private long timeBudget = DEFAULT_TIME_BUDGET;
 	private List<CommentsPage> pages;
+	private final List<String> failed = new ArrayList<>();	// urls that couldn't be scraped in concurrent mode
 	
 	public CommentsScraper(String...urls) {
-		pages = new ArrayList<>();
-		try (Browser browser = new Browser(true)) {
-			for (String url : urls)
-				pages.add(loadComments(browser, url));
+		this(Mode.ELEMENTS, urls);
+	}
+	
+	public CommentsScraper(Mode mode, String...urls) {
+		this.mode = mode;
+		policy = ResourcePolicy.none();
+		checkpoint = null;
+		fingerprints = null;
+		keys = null;
+		output = null;
+		pages = scrapeSequentially(urls);
+	}
+	
+	/* Concurrent mode: fans the urls out over a bounded pool of workers, each 
+	 * one driving its own browser. Pages are collected as they finish but kept
+	 * in the same order as the given urls.
+	 */
+	public CommentsScraper(int workers, String...urls) throws InterruptedException {
+		this(Mode.ELEMENTS, workers, urls);
+	}
+	
+	public CommentsScraper(Mode mode, int workers, String...urls) throws InterruptedException {
+		this.mode = mode;
+		policy = ResourcePolicy.none();
+		checkpoint = null;
+		fingerprints = null;
+		keys = null;
+		output = null;
+		pages = scrapeConcurrently(workers, urls);
+	}
+	
+	/* Options also allow resuming from a checkpoint directory: pages completed 
+	 * in a previous run are reused and partially scraped ones continue after the 
+	 * last saved comment. With a fingerprints directory, pages whose comments box
+	 * didn't change since they were last scraped are reused without extracting them.
+	 * In delta mode pages only hold the comments that weren't scraped by earlier runs:
+	 * new comments with their replies, and new replies to known comments (at any depth)
+	 * on their own, with a reference to their parent's key.
+	 */
+	public CommentsScraper(Options options, String...urls) throws IOException, InterruptedException {
+		mode = options.mode;
+		policy = options.policy;
+		maxComments = options.maxComments;
+		maxReplies = options.maxReplies;
+		maxDepth = options.maxDepth;
+		timeBudget = options.timeBudget;
+		checkpoint = options.checkpoint == null ? null : 
+			new Checkpoint<>(options.checkpoint, Comment.class, CommentsPage.Builder::new);
+		fingerprints = options.fingerprints == null ? null : 
+			new FingerprintStore<>(options.fingerprints, CommentsPage.class);
+		keys = options.delta == null ? null : new KnownKeys(options.delta);
+		output = options.output == null ? null : Json.newPageWriter(options.output);
+		try {
+			pages = options.workers > 1 ? 
+				scrapeConcurrently(options.workers, urls) : 
+				scrapeSequentially(urls);
+		} finally {
+			try {
+				if (checkpoint != null)
+					checkpoint.close();
+			} finally {
+				if (output != null)
+					output.close();
+			}
 		}
 	}
 	
+	private List<CommentsPage> scrapeSequentially(String...urls) {
+		List<CommentsPage> pages = new ArrayList<>();
+		if (checkpoint != null && pending(urls).length == 0)
+			return restored(urls);
+		Browser browser = null;		// only started once a page needs it
+		try (Fetcher fetcher = mode == Mode.STATIC ? new Fetcher() : null) {
+			for (String url : urls) {
+				CommentsPage page = isDone(url) ? checkpoint.getPage(url) : 
+					fetcher != null ? fetchComments(fetcher, url) : null;
+				if (page == null) {
+					if (browser == null)
+						browser = new Browser(true, policy);
+					page = loadComments(browser, url);
+				}
+				if (!stream(page))
+					pages.add(page);
+			}
+		} finally {
+			if (browser != null)
+				browser.close();
+		}
+		return pages;
+	}
+	
+	private List<CommentsPage> scrapeConcurrently(int workers, String...urls) throws InterruptedException {
+		String[] pending = pending(urls);
+		if (checkpoint != null && pending.length == 0)
+			return restored(urls);
+		workers = Math.max(1, Math.min(workers, pending.length));
+		CommentsPage[] results = new CommentsPage[urls.length];	// unless streamed to the output
+		boolean[] scraped = new boolean[urls.length];
+		AtomicInteger done = new AtomicInteger();
+		// Static pages may never need a browser, so none is started upfront
+		try (Fetcher fetcher = mode == Mode.STATIC ? new Fetcher() : null;
+			BrowserPool pool = new BrowserPool(workers, fetcher != null ? 0 : workers, BrowserPool.DEFAULT_IDLE_TIMEOUT, 
+				() -> new Browser(true, policy))) {
+			List<CompletableFuture<Void>> jobs = new ArrayList<>();
+			for (int i = 0; i < urls.length; i++) {
+				final int index = i;
+				if (isDone(urls[index])) {
+					if (!stream(checkpoint.getPage(urls[index])))
+						results[index] = checkpoint.getPage(urls[index]);
+					scraped[index] = true;
+				} else	// jobs wait for a free browser on virtual threads, fetches don't hold any thread
+					jobs.add((fetcher != null ? fetchCommentsAsync(fetcher, pool, urls[index]) : 
+							pool.submit(browser -> loadComments(browser, urls[index])))
+						.thenAccept(page -> {
+							if (!stream(page))
+								results[index] = page;
+							scraped[index] = true;
+							System.out.printf("Finished (%d/%d): %s%n", done.incrementAndGet(), pending.length, urls[index]);
+						})
+						.exceptionally(e -> {
+							System.err.println("Could not scrape page "+urls[index]+": "+(e.getCause() == null ? e : e.getCause()));
+							return null;
+						}));
+			}
+			try {
+				CompletableFuture.allOf(jobs.toArray(CompletableFuture[]::new)).get();
+			} catch (ExecutionException e) {}	// already reported per page
+		}
+		List<CommentsPage> pages = new ArrayList<>();
+		for (int i = 0; i < urls.length; i++)
+			if (results[i] != null)
+				pages.add(results[i]);
+			else if (!scraped[i])
+				failed.add(urls[i]);
+		if (!failed.isEmpty())
+			System.err.printf("Could not scrape %d/%d pages: %s%n", failed.size(), pending.length, failed);
+		return pages;
+	}
+	
 	private CommentsPage loadComments(Browser browser, String url) {
 		System.out.printf("Scraping website: %s%n", url);
+		List<Comment> comments = checkpoint == null ? new ArrayList<>() : checkpoint.getPartial(url);
+		Budget budget = new Budget(url, comments);
+		int resumed = resumePosition(url);
+		if (!comments.isEmpty())
+			System.out.printf("Resuming after %d saved comments%n", comments.size());
 		WebElement commentsBox = browser
 				.visit(url)	// load website
-				.waitGet(By.cssSelector("div.box_comment_vne.width_common"));
+				.waitGet(By.cssSelector(COMMENTS_BOX_SELECTOR));
+		String fingerprint = fingerprints == null ? null : fingerprint(browser, commentsBox);
+		CommentsPage unchanged = unchanged(url, fingerprint);
+		if (unchanged != null)
+			return unchanged;
 		// Click on 'Xem them' first to load everything
 		WebElement xemThem = commentsBox.findElement(By.className("view_more_coment"));
 		if (xemThem != null)	// if there's no button we don't care
 			xemThem.click();
-		// Get all comments
-		List<Comment> comments = commentsBox.findElements(By.cssSelector("div.comment_item.width_common"))
-			.stream()
-			.map(this::convertToComment)
-			.collect(Collectors.toList());
+		/* Get all comments (except the ones saved by a previous run). Delta mode always extracts:
+		 * known threads can't be skipped (vnexpress shows no reply counts or dates telling which
+		 * got new replies), but the extraction checks them all against the known keys in a single
+		 * round trip, so only the clicks loading replies and the new comments cost anything.
+		 */
+		if (mode != Mode.ELEMENTS || keys != null) {
+			List<Comment> extracted = extractComments(browser, commentsBox, budget);
+			comments.addAll(extracted.subList(Math.min(resumed, extracted.size()), extracted.size()));
+		} else {
+			List<WebElement> domComments = commentsBox.findElements(By.cssSelector(TOP_COMMENT_SELECTOR));
+			for (int i = resumed; i < domComments.size(); i++) {
+				if (!budget.admit(0))
+					break;
+				comments.add(save(url, convertToComment(browser, domComments.get(i), budget, 0), i));
+			}
+		}
 		System.out.printf("Global comments : %d%n", comments.size());
-		System.out.printf("Total comments : %d%n", count);
-		count = 0;	// reset total page comments count
-		return new CommentsPage.Builder()
+		System.out.printf("Total comments : %d%n", budget.count);
+		if (budget.truncated)
+			System.out.printf("Truncated page (limits reached): %s%n", url);
+		CommentsPage page = new CommentsPage.Builder()
 			.setUrl(url)
+			.setTruncated(budget.truncated)
 			.setElements(comments)
 			.build();
+		return remember(fingerprint, learn(complete(page)));
 	}
 	
-	private Comment convertToComment(WebElement domComment) {
-		++count;
-		// Expand if big comment
-		boolean shrunk;
+	/* Limits */
+	
+	// Tracks one page against the limits, flagging it truncated as soon as something is left out
+	private class Budget {
+		private final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeBudget);
+		private final Set<String> known;	// keys scraped by earlier runs in delta mode, null otherwise
+		private int count;		// total page comments count
+		private boolean truncated;
+		
+		// Comments saved by an interrupted run count as known, so that resuming doesn't repeat them
+		private Budget(String url, List<Comment> saved) {
+			try {
+				known = keys == null ? null : keys.load(url);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			if (known != null)
+				known.addAll(keysOf(saved));
+		}
+		
+		private boolean isKnown(String key) {
+			return known != null && known.contains(key);
+		}
+		
+		// Whether another comment at that depth (0 for top-level ones) can be scraped
+		private boolean admit(int depth) {
+			if (count >= maxComments || depth > maxDepth || expired())
+				return truncate();
+			count++;
+			return true;
+		}
+		
+		private boolean expired() {
+			if (System.nanoTime() - deadline < 0)
+				return false;
+			truncated = true;
+			return true;
+		}
+		
+		private boolean truncate() {
+			truncated = true;
+			return false;
+		}
+	}
+	
+	/* Checkpoint handling */
+	
+	// Restored from a previous run (pages completed by this one aren't kept, see Checkpoint::getPage)
+	private boolean isDone(String url) {
+		return checkpoint != null && checkpoint.getPage(url) != null;
+	}
+	
+	private String[] pending(String...urls) {
+		return Arrays.stream(urls)
+			.filter(url -> !isDone(url))
+			.toArray(String[]::new);
+	}
+	
+	// Index of the top-level comment to resume the page from, delta mode knows the saved ones instead (see Budget)
+	private int resumePosition(String url) {
+		return checkpoint == null || keys != null ? 0 : checkpoint.getResumePosition(url);
+	}
+	
+	private List<CommentsPage> restored(String...urls) {
+		System.out.println("All pages restored from checkpoint");
+		List<CommentsPage> pages = new ArrayList<>();
+		for (String url : urls)
+			if (!stream(checkpoint.getPage(url)))
+				pages.add(checkpoint.getPage(url));
+		return pages;
+	}
+	
+	/* Output */
+	
+	// Writes the page out right away when streaming to an output, false if it has to be kept instead
+	private boolean stream(CommentsPage page) {
+		if (output == null)
+			return false;
+		synchronized (output) {		// concurrent pages finish on several threads
+			try {
+				output.writePage(page);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return true;
+	}
+	
+	/* Change detection */
+	
+	/* Limits are part of it, so that changing them doesn't reuse pages scraped under other ones.
+	 * So is delta mode, since its pages only hold the new comments: a later full run sharing
+	 * the directory must not take them for the whole page.
+	 */
+	private String fingerprint(String commentsBox) {
+		return FingerprintStore.hash((keys != null ? "delta " : "")+maxComments+" "+maxReplies+" "+maxDepth+"\n"+commentsBox);
+	}
+	
+	// Once the ajax comments are rendered, null if the box never settled (no half-loaded state is hashed)
+	private @Nullable String fingerprint(Browser browser, WebElement commentsBox) {
+		if (!browser.waitForDom(COMMENTS_BOX_SELECTOR, Browser.DomState.SETTLES, QUIET_PERIOD, LOAD_TIMEOUT))
+			return null;
+		return fingerprint(browser.<String>evaluate(FINGERPRINT_SCRIPT, commentsBox));
+	}
+	
+	private @Nullable CommentsPage unchanged(String url, @Nullable String fingerprint) {
+		if (fingerprint == null)
+			return null;
+		CommentsPage page;
 		try {
-			domComment.findElement(By.cssSelector(SHRUNKEN_COMMENT)).click();
-			shrunk = true;  // expand button exists
-		} catch (Exception e) { 
-			shrunk = false; 
+			page = fingerprints.get(url, fingerprint);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
+		if (page == null)
+			return null;
+		System.out.printf("Unchanged since %s: %s%n", page.getScraped(), url);
+		if (keys != null)	// delta mode, nothing new then
+			page = new CommentsPage.Builder()
+				.setUrl(url)
+				.build();
+		return complete(page);
+	}
+	
+	/* Truncated pages aren't stored: what cut them (time budget, stuck button, replies only
+	 * loaded by scripts) isn't part of the fingerprint, so they'd pass for complete next time.
+	 */
+	private CommentsPage remember(@Nullable String fingerprint, CommentsPage page) {
+		if (fingerprint != null && !page.isTruncated())
+			try {
+				fingerprints.put(page.getUrl(), fingerprint, page);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		return page;
+	}
+	
+	/* Delta mode */
+	
+	// Records the keys of every comment of the page (replies included) as known
+	private CommentsPage learn(CommentsPage page) {
+		if (keys != null)
+			try {
+				keys.add(page.getUrl(), keysOf(page));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		return page;
+	}
+	
+	private static List<String> keysOf(List<Comment> comments) {
+		List<String> keys = new ArrayList<>();
+		List<Comment> pending = new ArrayList<>(comments);
+		while (!pending.isEmpty()) {
+			Comment comment = pending.remove(pending.size()-1);
+			keys.add(comment.getKey());
+			pending.addAll(comment.replies);
+		}
+		return keys;
+	}
+	
+	/* Replies under a known record that weren't scraped before (with their own replies), in
+	 * page order and each referencing the comment it replies to. Known replies are searched
+	 * too since they can have new replies of their own. depth is the one of the replies.
+	 */
+	private List<Comment> newReplies(JsonObject parent, Budget budget, int depth) {
+		List<Comment> replies = new ArrayList<>();
+		String key = readComment(parent, null).getKey();
+		int kept = 0;	// new replies to this parent
+		for (JsonElement record : parent.getAsJsonArray("replies")) {
+			JsonObject json = record.getAsJsonObject();
+			Comment reply = readComment(json, key);
+			if (budget.isKnown(reply.getKey())) {
+				replies.addAll(newReplies(json, budget, depth+1));
+				continue;
+			}
+			if (kept >= maxReplies) {
+				budget.truncate();
+				continue;	// later known replies may still have new ones
+			}
+			if (!budget.admit(depth))
+				break;
+			convertToComments(json.getAsJsonArray("replies"), budget, depth+1, null)
+				.forEach(reply::addReply);
+			replies.add(reply);
+			kept++;
+		}
+		return replies;
+	}
+	
+	// position is the index of the top-level comment it comes from (see Checkpoint::getResumePosition)
+	private Comment save(String url, Comment comment, int position) {
+		if (checkpoint != null)
+			try {
+				checkpoint.save(url, comment, position);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		return comment;
+	}
+	
+	private CommentsPage complete(CommentsPage page) {
+		if (checkpoint != null)
+			try {
+				checkpoint.complete(page);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		return page;
+	}
+	
+	private Comment convertToComment(Browser browser, WebElement domComment, Budget budget, int depth) {
+		return withReplies(browser, readComment(browser, domComment), domComment, budget, depth);
+	}
+	
+	// The comment alone, replies are added by withReplies
+	private Comment readComment(Browser browser, WebElement domComment) {
+		// Expand if big comment
+		WebElement expand = browser.lookupElements(domComment, EXPAND_BUTTON).get("expand");
+		boolean shrunk = expand != null;	// expand button exists
+		if (shrunk)
+			expand.click();
+		Map<String, String> texts = browser.lookup(domComment, shrunk ? BIG_TEXTS : TEXTS);
+		if (texts.get("user") == null || texts.get("message") == null || texts.get("time") == null)
+			throw new NoSuchElementException("Comment is missing its user, message or time");
 		Comment.Builder builder = new Comment.Builder();
-		String user = domComment.findElement(By.cssSelector(shrunk ? BIG_USER_SELECTOR : USER_SELECTOR))
-					.getText();
+		String user = texts.get("user");
 		builder.setUser(user);
-		String message = domComment.findElement(By.cssSelector(shrunk ? BIG_MESSAGE_SELECTOR : MESSAGE_SELECTOR))
-				.getText()
-				.substring(user.length());
-		builder.setMessage(message);
-		builder.setTimestamp(domComment.findElement(By.cssSelector(TIME_SELECTOR)).getText());
-		Comment comment = builder.build();
-		loadMore(comment, domComment);
+		builder.setMessage(message(user, texts.get("message")));
+		builder.setTimestamp(texts.get("time"));
+		return builder.build();
+	}
+	
+	private Comment withReplies(Browser browser, Comment comment, WebElement domComment, Budget budget, int depth) {
+		if (depth < maxDepth)
+			loadMore(browser, comment, domComment, budget, depth);
+		else if (!browser.findAll(domComment, By.cssSelector(REPLY_SELECTOR+", "+LOAD_SELECTOR)).isEmpty())
+			budget.truncate();	// replies are deeper than allowed
 		return comment;
 	}
 	
-	private void loadMore(Comment parent, WebElement comment) {
-		// Load all replies until load button disappears
-		boolean stop = false;
-		while (!stop) {
+	private void loadMore(Browser browser, Comment parent, WebElement comment, Budget budget, int depth) {
+		// Add replies to parent comment
+		for (WebElement reply : loadReplies(browser, comment, budget)) {
+			if (parent.replies.size() >= maxReplies) {
+				budget.truncate();
+				break;
+			}
+			if (!budget.admit(depth+1))
+				break;
+			parent.addReply(convertToComment(browser, reply, budget, depth+1));
+		}
+	}
+	
+	private List<WebElement> loadReplies(Browser browser, WebElement comment, Budget budget) {
+		// Load replies until the load button disappears, a click doesn't add any or a limit is hit
+		Supplier<Integer> rendered = () -> browser.findAll(comment, By.cssSelector(REPLY_SELECTOR)).size();
+		int replies = rendered.get();
+		while (replies < maxReplies && !budget.expired()) {
 			try { 
-				comment.findElement(By.cssSelector(LOAD_SELECTOR)).click();
-			} catch (Exception e) {		// NoSuchElement
-				stop = true;
+				browser.find(comment, By.cssSelector(LOAD_SELECTOR)).click();
+			} catch (Exception e) {		// NoSuchElement, i.e. all loaded
+				break;
 			}
+			int before = replies;
+			// The whole timeout rather than the learned one, a single slow response isn't a stuck button
+			Integer after = browser.getWaits().poll(LOAD_SELECTOR, () -> {
+				int count = rendered.get();
+				return count > before ? count : null;
+			}, LOAD_TIMEOUT);
+			if (after == null) {	// stuck button, give up on the rest
+				budget.truncate();
+				break;
+			}
+			replies = after;
 		}
-		// Add replies to parent comment
-		comment.findElements(By.cssSelector(".sub_comment_item.comment_item.width_common"))
-			.stream()
-			.map(this::convertToComment)
-			.forEach(parent::addReply);
+		return browser.findAll(comment, By.cssSelector(REPLY_SELECTOR));
+	}
+	
+	/* Script extraction mode */
+	
+	private List<Comment> extractComments(Browser browser, WebElement commentsBox, Budget budget) {
+		expandReplies(browser, commentsBox, budget);
+		return convertToComments(COMMENTS.extractJson(browser, commentsBox), budget, 0, null);
+	}
+	
+	/* Keeps clicking all 'load replies' buttons at once until they're gone or stop adding replies,
+	 * waiting after each round for the ajax replies to render (up to LOAD_TIMEOUT)
+	 */
+	private void expandReplies(Browser browser, WebElement commentsBox, Budget budget) {
+		if (maxDepth == 0 || maxReplies == 0)
+			return;		// replies won't be kept anyway
+		for (int round = 0; round < MAX_EXPAND_ROUNDS; round++) {
+			if (budget.expired())
+				return;
+			List<Long> result = browser.evaluate(EXPAND_SCRIPT, commentsBox, LOAD_SELECTOR, REPLY_SELECTOR);
+			long clicked = result.get(0), before = result.get(1);
+			if (clicked == 0)
+				return;
+			Long replies = browser.getWaits().poll(LOAD_SELECTOR, () -> {
+				long count = browser.<Long>evaluate(COUNT_SCRIPT, commentsBox, REPLY_SELECTOR);
+				return count > before ? count : null;
+			}, LOAD_TIMEOUT);
+			// Stuck, or already more than can be kept (unless in delta mode, where known replies don't count)
+			if (replies == null || keys == null && replies >= maxComments) {
+				budget.truncate();
+				return;
+			}
+		}
+		budget.truncate();
+	}
+	
+	// Extracted records at the given depth, cut down to the limits
+	private List<Comment> convertToComments(JsonArray records, Budget budget, int depth, @Nullable String parent) {
+		List<Comment> comments = new ArrayList<>();
+		for (JsonElement record : records) {
+			JsonObject json = record.getAsJsonObject();
+			if (depth == 0 && budget.known != null && budget.isKnown(readComment(json, null).getKey())) {
+				comments.addAll(newReplies(json, budget, 1));	// delta mode, only its new replies
+				continue;
+			}
+			if (depth > 0 && comments.size() >= maxReplies) {
+				budget.truncate();
+				break;
+			}
+			if (!budget.admit(depth))
+				break;
+			Comment comment = readComment(json, parent);
+			convertToComments(json.getAsJsonArray("replies"), budget, depth+1, null)
+				.forEach(comment::addReply);
+			comments.add(comment);
+		}
+		return comments;
+	}
+	
+	// The record alone, without its replies
+	private Comment readComment(JsonObject json, @Nullable String parent) {
+		String user = text(json, "user");
+		return new Comment.Builder()
+			.setUser(user)
+			.setMessage(message(user, text(json, "message")))
+			.setTimestamp(text(json, "timestamp"))
+			.setParent(parent)
+			.build();
+	}
+	
+	/* Static mode */
+	
+	private @Nullable CommentsPage fetchComments(Fetcher fetcher, String url) {
+		try {
+			return loadStatic(fetcher.visit(url), url);
+		} catch (IOException e) {
+			System.err.println("Could not fetch page, using a browser instead: "+e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return null;
+	}
+	
+	private CompletableFuture<CommentsPage> fetchCommentsAsync(Fetcher fetcher, BrowserPool pool, String url) {
+		return fetcher.visitAsync(url)
+			.handle((page, e) -> {
+				if (e == null)
+					return loadStatic(page, url);
+				System.err.println("Could not fetch page, using a browser instead: "+(e.getCause() == null ? e : e.getCause()));
+				return null;
+			})
+			.thenCompose(page -> page != null ? 
+				CompletableFuture.completedFuture(page) : 
+				pool.submit(browser -> loadComments(browser, url)));
+	}
+	
+	// Comments found in the html, or null when they're rendered client side (i.e. need a browser)
+	private @Nullable CommentsPage loadStatic(Fetcher.Page page, String url) {
+		Element commentsBox = page.get(By.cssSelector(COMMENTS_BOX_SELECTOR));
+		if (commentsBox == null)
+			return null;
+		String fingerprint = fingerprints == null ? null : fingerprint(commentsBox.text());
+		CommentsPage unchanged = unchanged(url, fingerprint);
+		if (unchanged != null)
+			return unchanged;
+		JsonArray records = COMMENTS.extractJson(page, commentsBox);
+		if (records.size() == 0)
+			return null;
+		List<Comment> comments = checkpoint == null ? new ArrayList<>() : checkpoint.getPartial(url);
+		Budget budget = new Budget(url, comments);
+		List<Comment> extracted = convertToComments(records, budget, 0, null);
+		if (!page.findAll(commentsBox, By.cssSelector(LOAD_SELECTOR)).isEmpty())
+			budget.truncate();	// replies only loaded by scripts
+		System.out.printf("Fetched website: %s (%d comments, no browser)%n", url, budget.count);
+		comments.addAll(extracted.subList(Math.min(resumePosition(url), extracted.size()), extracted.size()));
+		CommentsPage commentsPage = new CommentsPage.Builder()
+			.setUrl(url)
+			.setTruncated(budget.truncated)
+			.setElements(comments)
+			.build();
+		return remember(fingerprint, learn(complete(commentsPage)));
+	}
+	
+	// Same in every mode, along with Comment::key ignoring whitespace a comment keeps its key whichever way it was read
+	private static String message(String user, String paragraph) {
+		paragraph = paragraph.trim();	// textContent keeps the markup's indentation
+		if (!user.isBlank() && paragraph.startsWith(user.trim()))	// the user name is part of the message's paragraph
+			paragraph = paragraph.substring(user.trim().length());
+		return paragraph.trim();
+	}
+	
+	private static String text(JsonObject json, String field) {
+		JsonElement value = json.get(field);
+		return value == null || value.isJsonNull() ? "" : value.getAsString();
+	}
+	
+	public static class Options {
+		private Mode mode = Mode.ELEMENTS;
+		private int workers = 1;
+		private Path checkpoint, fingerprints, delta, output;
+		private ResourcePolicy policy = ResourcePolicy.none();
+		private int maxComments = Integer.MAX_VALUE, maxReplies = Integer.MAX_VALUE, maxDepth = Integer.MAX_VALUE;
+		private long timeBudget = DEFAULT_TIME_BUDGET;
+		
+		public Options setMode(Mode mode) {
+			this.mode = mode;
+			return this;
+		}
+		
+		public Options setWorkers(int workers) {
+			this.workers = workers;
+			return this;
+		}
+		
+		public Options setCheckpoint(Path directory) {
+			this.checkpoint = directory;
+			return this;
+		}
+		
+		/* e.g. FingerprintStore.DEFAULT_DIRECTORY, kept across runs */
+		public Options setFingerprints(Path directory) {
+			this.fingerprints = directory;
+			return this;
+		}
+		
+		/* Delta mode, keys of the comments already scraped are kept in the directory
+		 * (e.g. KnownKeys.DEFAULT_DIRECTORY) across runs
+		 */
+		public Options setDelta(Path directory) {
+			this.delta = directory;
+			return this;
+		}
+		
+		/* Writes every page to the file (same format as serialize) as soon as it's scraped, so
+		 * only the page in progress is ever held. Pages aren't kept for getPages() then, and
+		 * concurrent ones are written in the order they finish.
+		 */
+		public Options setOutput(Path file) {
+			this.output = file;
+			return this;
+		}
+		
+		public Options setResourcePolicy(ResourcePolicy policy) {
+			this.policy = policy;
+			return this;
+		}
+		
+		/* Comments and replies scraped per page at most */
+		public Options setMaxComments(int maxComments) {
+			this.maxComments = maxComments;
+			return this;
+		}
+		
+		/* Replies kept under each comment at most */
+		public Options setMaxReplies(int maxReplies) {
+			this.maxReplies = maxReplies;
+			return this;
+		}
+		
+		/* Levels of replies, 0 for top-level comments only */
+		public Options setMaxDepth(int maxDepth) {
+			this.maxDepth = maxDepth;
+			return this;
+		}
+		
+		/* Time spent on a page (in ms) before returning what it has so far */
+		public Options setTimeBudget(long timeBudget) {
+			this.timeBudget = timeBudget;
+			return this;
+		}
+	}
+	
+	/* Empty when the pages were streamed to an output (see Options::setOutput) */
+	public List<CommentsPage> getPages() {
+		return pages;
+	}
+	
+	/* Urls missing from the pages because scraping them failed, in the given order */
+	public List<String> getFailed() {
+		return failed;
 	}
 	
 	public Path serialize(String filename) throws IOException {
-		return Files.writeString(Paths.get(filename), Json.of(pages));
+		Path path = Paths.get(filename);
+		try (Json.PageWriter writer = Json.newPageWriter(path)) {
+			for (CommentsPage page : pages)
+				writer.writePage(page);
+		}
+		return path;
+	}
+	
+	public static List<CommentsPage> deserialize(String filename) throws IOException {
+		try (Reader reader = Files.newBufferedReader(Paths.get(filename))) {
+			return Json.toPagedResultList(reader, CommentsPage.class);
+		}
 	}
 	
-	public static <T> List<List<LinkedTreeMap<String, T>>> deserialize(String filename) throws IOException {
-		String json = Files.newBufferedReader(Paths.get(filename))
-			.lines()
-			.reduce((s1,s2) -> s1 + System.lineSeparator() + s2)
-			.get();
-		return Json.toList(json);
+	/* Lazily reads back one page at a time, close the stream when done */
+	public static Stream<CommentsPage> streamPages(String filename) throws IOException {
+		return Json.streamPages(Paths.get(filename), CommentsPage.class);
 	}
 	
 	@Override